@@ -0,0 +1,80 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks for bcrypt's base64 encoding and decoding of the
+ * salt and the hashed password
+ * @author Damien Miller
+ * @version 0.4
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64Benchmark {
+    private final byte salt[] = {
+        0x10, 0x41, 0x04, 0x10, 0x41, 0x04, 0x10, 0x41,
+        0x04, 0x10, 0x41, 0x04, 0x10, 0x41, 0x04, 0x10
+    };
+    private final byte digest[] = new byte[23];
+    private final String encoded_salt = "EEEEEEEEEEEEEEEEEEEEE.";
+    private final String encoded_digest = "7uG0VCzI2bS7j6ymqJi9CdcdxiRTWNy";
+    private final char chars[] = new char[31];
+    private final byte bytes[] = new byte[23];
+
+    @Benchmark
+    public char[] encodeSalt() {
+        BCryptBase64.encode(salt, 0, salt.length, chars, 0);
+        return chars;
+    }
+
+    @Benchmark
+    public char[] encodeDigest() {
+        BCryptBase64.encode(digest, 0, digest.length, chars, 0);
+        return chars;
+    }
+
+    @Benchmark
+    public byte[] decodeSalt() {
+        BCryptBase64.decode(encoded_salt, 0, 22, bytes, 0);
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] decodeDigest() {
+        BCryptBase64.decode(encoded_digest, 0, 31, bytes, 0);
+        return bytes;
+    }
+
+    @Benchmark
+    public BCryptHash parseHash() {
+        return BCryptHash.parse(
+                "$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW");
+    }
+}
@@ -0,0 +1,92 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks for the Blowfish stages of bcrypt: a single block
+ * encipher, one key() call of the expensive loop and the ekskey()
+ * setup step
+ * @author Damien Miller
+ * @version 0.4
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlowfishBenchmark {
+    private static final byte password[] = {
+        'p', 'a', 's', 's', 'w', 'o', 'r', 'd', 0
+    };
+    private static final byte salt[] = {
+        0x10, 0x41, 0x04, 0x10, 0x41, 0x04, 0x10, 0x41,
+        0x04, 0x10, 0x41, 0x04, 0x10, 0x41, 0x04, 0x10
+    };
+
+    private BCrypt engine;
+    private int key_words[], key_bug_words[], salt_words[];
+    private int sign;
+    private long lr;
+
+    @Setup
+    public void setup() {
+        engine = new BCrypt();
+        key_words = new int[18];
+        key_bug_words = new int[18];
+        salt_words = new int[18];
+        BCrypt.streamtowords(salt, salt_words, key_bug_words);
+        sign = BCrypt.streamtowords(password, key_words, key_bug_words);
+        lr = 0x4f72706865616e42L;
+        engine.init_key();
+    }
+
+    @Benchmark
+    public long encipher() {
+        lr = BCrypt.encipher(engine.state, (int) (lr >>> 32), (int) lr);
+        return lr;
+    }
+
+    @Benchmark
+    public int streamtowords() {
+        return BCrypt.streamtowords(password, key_words, key_bug_words);
+    }
+
+    @Benchmark
+    public int[] key() {
+        engine.key(key_words);
+        return engine.state;
+    }
+
+    @Benchmark
+    public int[] ekskey() {
+        engine.init_key();
+        engine.ekskey(salt_words, key_words, key_bug_words, sign, false,
+                0x10000);
+        return engine.state;
+    }
+}
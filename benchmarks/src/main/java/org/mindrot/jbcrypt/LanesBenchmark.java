@@ -0,0 +1,73 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for hashing a group of four passwords on one thread, one
+ * at a time and with the interleaved BCryptLanes engine
+ * @author Damien Miller
+ * @version 0.4
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LanesBenchmark {
+    @Param({ "6", "10" })
+    public int cost;
+
+    private final BCrypt engine = new BCrypt();
+    private final BCryptLanes lanes = new BCryptLanes();
+    private final byte passwords[][] = new byte[BCryptLanes.LANES][];
+    private final String salts[] = new String[BCryptLanes.LANES];
+    private final String hashes[] = new String[BCryptLanes.LANES];
+
+    @Setup
+    public void setup() {
+        for (int k = 0; k < BCryptLanes.LANES; k++) {
+            passwords[k] = ("correct horse battery staple " + k).getBytes();
+            salts[k] = BCrypt.gensalt(cost);
+        }
+    }
+
+    @Benchmark
+    public String[] sequential() {
+        for (int k = 0; k < BCryptLanes.LANES; k++) {
+            hashes[k] = engine.hash(passwords[k], salts[k]);
+        }
+        return hashes;
+    }
+
+    @Benchmark
+    public String[] interleaved() {
+        lanes.hash(passwords, salts, hashes);
+        return hashes;
+    }
+}
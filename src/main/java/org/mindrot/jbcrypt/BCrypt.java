@@ -15,9 +15,16 @@ package org.mindrot.jbcrypt;
 
 import java.io.UnsupportedEncodingException;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.security.SecureRandom;
 
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * BCrypt implements OpenBSD-style Blowfish password hashing using
@@ -58,6 +65,15 @@ import java.util.Arrays;
  * The amount of work increases exponentially (2**log_rounds), so
  * each increment is twice as much work. The default log_rounds is
  * 10, and the valid range is 4 to 30.
+ * <p>
+ * Callers that hash many passwords on one thread may keep their own
+ * engine, which reuses its key schedule buffers between calls:
+ * <p>
+ * <code>
+ * BCrypt engine = new BCrypt();<br />
+ * if (engine.verify(candidate_password, stored_hash))<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;...<br />
+ * </code>
  *
  * @author Damien Miller
  * @version 0.4
@@ -65,10 +81,24 @@ import java.util.Arrays;
 public class BCrypt {
     // BCrypt parameters
 
-    private static final int GENSALT_DEFAULT_LOG2_ROUNDS = 10;
+    static final int GENSALT_DEFAULT_LOG2_ROUNDS = 10;
     private static final int BCRYPT_SALT_LEN = 16;
+    // Timeout meaning "run to completion, ignoring interrupts"
+    private static final long NO_TIMEOUT = -1;
+    // Rounds of the expensive loop between checks for a timeout
+    private static final int CHECK_ROUNDS = 16;
     // Blowfish parameters
     private static final int BLOWFISH_NUM_ROUNDS = 16;
+    // Layout of the key schedule: the P-array, then the four S-boxes
+    static final int P_LEN = BLOWFISH_NUM_ROUNDS + 2;
+    static final int S0 = P_LEN;
+    static final int S1 = S0 + 256;
+    static final int S2 = S1 + 256;
+    static final int S3 = S2 + 256;
+    static final int STATE_LEN = S3 + 256;
+    // Bytes of password that can affect the hash: the key material
+    // covers the P-array once, so anything after this is ignored
+    static final int MAX_KEY_LEN = P_LEN * 4;
     // Initial contents of key schedule
     private static final int P_orig[] = {
         0x243f6a88, 0x85a308d3, 0x13198a2e, 0x03707344,
@@ -342,264 +372,150 @@ public class BCrypt {
         0x4f727068, 0x65616e42, 0x65686f6c,
         0x64657253, 0x63727944, 0x6f756274
     };
-    // Table for Base64 encoding
-    static private final char base64_code[] = {
-        '.', '/', 'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J',
-        'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V',
-        'W', 'X', 'Y', 'Z', 'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h',
-        'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p', 'q', 'r', 's', 't',
-        'u', 'v', 'w', 'x', 'y', 'z', '0', '1', '2', '3', '4', '5',
-        '6', '7', '8', '9'
-    };
-    // Table for Base64 decoding
-    static private final byte index_64[] = {
-        -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-        -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-        -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-        -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-        -1, -1, -1, -1, -1, -1, 0, 1, 54, 55,
-        56, 57, 58, 59, 60, 61, 62, 63, -1, -1,
-        -1, -1, -1, -1, -1, 2, 3, 4, 5, 6,
-        7, 8, 9, 10, 11, 12, 13, 14, 15, 16,
-        17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27,
-        -1, -1, -1, -1, -1, -1, 28, 29, 30,
-        31, 32, 33, 34, 35, 36, 37, 38, 39, 40,
-        41, 42, 43, 44, 45, 46, 47, 48, 49, 50,
-        51, 52, 53, -1, -1, -1, -1, -1
-    };
-    // Expanded Blowfish key
-    private int P[];
-    private int S[];
-
-    /**
-     * Encode a byte array using bcrypt's slightly-modified base64
-     * encoding scheme. Note that this is *not* compatible with
-     * the standard MIME-base64 encoding.
-     *
-     * @param d	the byte array to encode
-     * @param len	the number of bytes to encode
-     * @return	base64-encoded string
-     * @exception IllegalArgumentException if the length is invalid
-     */
-    private static String encode_base64(byte d[], int len)
-            throws IllegalArgumentException {
-        int off = 0;
-        StringBuilder rs = new StringBuilder();
-        int c1, c2;
+    // Per-thread engines used by the static methods
+    private static final ThreadLocal<BCrypt> engines =
+        new ThreadLocal<BCrypt>() {
+            @Override
+            protected BCrypt initialValue() {
+                return new BCrypt();
+            }
+        };
 
-        if (len <= 0 || len > d.length) {
-            throw new IllegalArgumentException("Invalid len");
-        }
+    // Listener for hash and verify timings, or null when disabled
+    private static volatile BCryptMetrics metrics;
 
-        while (off < len) {
-            c1 = d[off++] & 0xff;
-            rs.append(base64_code[(c1 >> 2) & 0x3f]);
-            c1 = (c1 & 0x03) << 4;
-            if (off >= len) {
-                rs.append(base64_code[c1 & 0x3f]);
-                break;
-            }
-            c2 = d[off++] & 0xff;
-            c1 |= (c2 >> 4) & 0x0f;
-            rs.append(base64_code[c1 & 0x3f]);
-            c1 = (c2 & 0x0f) << 2;
-            if (off >= len) {
-                rs.append(base64_code[c1 & 0x3f]);
-                break;
-            }
-            c2 = d[off++] & 0xff;
-            c1 |= (c2 >> 6) & 0x03;
-            rs.append(base64_code[c1 & 0x3f]);
-            rs.append(base64_code[c2 & 0x3f]);
-        }
-        return rs.toString();
-    }
+    // Expanded Blowfish key: the P-array and S-boxes in one array, laid
+    // out as P_LEN and S0..S3 describe, so the cipher needs one reference
+    final int state[] = new int[STATE_LEN];
+    // Expanded key material and cipher state, reused between hashes
+    private final int key_words[] = new int[P_LEN];
+    private final int key_bug_words[] = new int[P_LEN];
+    final int salt_words[] = new int[P_LEN];
+    private final int cdata[] = new int[bf_crypt_ciphertext.length];
+    // Decoded salt and encoded result, reused between hashes
+    private final byte saltb[] = new byte[BCRYPT_SALT_LEN];
+    private final char hash_chars[] = new char[BCryptHash.HASH_LEN];
+    // Encoded password, with room for the NUL terminator; wiped after use
+    private final byte key_bytes[] = new byte[MAX_KEY_LEN + 1];
 
     /**
-     * Look up the 3 bits base64-encoded by the specified character,
-     * range-checking againt conversion table
-     * @param x	the base64-encoded value
-     * @return	the decoded value of x
+     * Create a bcrypt engine. An engine owns its key schedule buffers
+     * and reuses them for every hash, so repeated hashing through the
+     * same engine allocates almost nothing. Engines are not thread-safe;
+     * use one engine per thread. The static methods of this class use
+     * a per-thread engine of their own.
      */
-    private static byte char64(char x) {
-        if ((int) x < 0 || (int) x > index_64.length) {
-            return -1;
-        }
-        return index_64[(int) x];
+    public BCrypt() {
     }
 
     /**
-     * Decode a string encoded using bcrypt's base64 scheme to a
-     * byte array. Note that this is *not* compatible with
-     * the standard MIME-base64 encoding.
-     * @param s	the string to decode
-     * @param maxolen	the maximum number of bytes to decode
-     * @return	an array containing the decoded bytes
-     * @throws IllegalArgumentException if maxolen is invalid
+     * The Blowfish round function
+     * @param s	the key schedule, laid out as state
+     * @param x	the half block
+     * @return	the output of the round function
      */
-    private static byte[] decode_base64(String s, int maxolen)
-            throws IllegalArgumentException {
-        StringBuilder rs = new StringBuilder();
-        int off = 0, slen = s.length(), olen = 0;
-        byte ret[];
-        byte c1, c2, c3, c4, o;
-
-        if (maxolen <= 0) {
-            throw new IllegalArgumentException("Invalid maxolen");
-        }
-
-        while (off < slen - 1 && olen < maxolen) {
-            c1 = char64(s.charAt(off++));
-            c2 = char64(s.charAt(off++));
-            if (c1 == -1 || c2 == -1) {
-                break;
-            }
-            o = (byte) (c1 << 2);
-            o |= (c2 & 0x30) >> 4;
-            rs.append((char) o);
-            if (++olen >= maxolen || off >= slen) {
-                break;
-            }
-            c3 = char64(s.charAt(off++));
-            if (c3 == -1) {
-                break;
-            }
-            o = (byte) ((c2 & 0x0f) << 4);
-            o |= (c3 & 0x3c) >> 2;
-            rs.append((char) o);
-            if (++olen >= maxolen || off >= slen) {
-                break;
-            }
-            c4 = char64(s.charAt(off++));
-            o = (byte) ((c3 & 0x03) << 6);
-            o |= c4;
-            rs.append((char) o);
-            ++olen;
-        }
-
-        ret = new byte[olen];
-        for (off = 0; off < olen; off++) {
-            ret[off] = (byte) rs.charAt(off);
-        }
-        return ret;
+    static int f(int s[], int x) {
+        return ((s[S0 + (x >>> 24)] + s[S1 + ((x >>> 16) & 0xff)]) ^
+                s[S2 + ((x >>> 8) & 0xff)]) + s[S3 + (x & 0xff)];
     }
 
     /**
      * Blowfish encipher a single 64-bit block encoded as
-     * two 32-bit halves
-     * @param lr	an array containing the two 32-bit half blocks
-     * @param off	the position in the array of the blocks
-     */
-    private final void encipher(int lr[], int off) {
-        int i, n, l = lr[off], r = lr[off + 1];
-
-        l ^= P[0];
-        for (i = 0; i <= BLOWFISH_NUM_ROUNDS - 2;) {
-            // Feistel substitution on left word
-            n = S[(l >> 24) & 0xff];
-            n += S[0x100 | ((l >> 16) & 0xff)];
-            n ^= S[0x200 | ((l >> 8) & 0xff)];
-            n += S[0x300 | (l & 0xff)];
-            r ^= n ^ P[++i];
-
-            // Feistel substitution on right word
-            n = S[(r >> 24) & 0xff];
-            n += S[0x100 | ((r >> 16) & 0xff)];
-            n ^= S[0x200 | ((r >> 8) & 0xff)];
-            n += S[0x300 | (r & 0xff)];
-            l ^= n ^ P[++i];
-        }
-        lr[off] = r ^ P[BLOWFISH_NUM_ROUNDS + 1];
-        lr[off + 1] = l;
-    }
-
-    /**
-     * Cycically extract a word of key material
-     * @param data	the string to extract the data from
-     * @param offp	a "pointer" (as a one-entry array) to the
-     * current offset into data
-     * @param signp	a "pointer" (as a one-entry array) to the
-     * cumulative flag for non-benign sign extension
-     * @return	correct and buggy next word of material from data as int[2]
-     */
-    private static int[] streamtowords(byte data[], int offp[], int signp[]) {
-        int i;
-        int words[] = { 0, 0 };
-        int off = offp[0];
-        int sign = signp[0];
-
-        for (i = 0; i < 4; i++) {
-            words[0] = (words[0] << 8) | (data[off] & 0xff);
-            words[1] = (words[1] << 8) | (int)data[off];
-            if (i > 0) sign |= words[1] & 0x80;
-            off = (off + 1) % data.length;
-        }
-
-        offp[0] = off;
-        signp[0] = sign;
-        return words;
+     * two 32-bit halves. The halves stay in locals and the 16 rounds
+     * are written out, so nothing but the key schedule is read from
+     * memory.
+     * @param s	the key schedule, laid out as state
+     * @param l	the left half of the block
+     * @param r	the right half of the block
+     * @return	the enciphered block, its left half in the upper 32 bits
+     */
+    static long encipher(int s[], int l, int r) {
+        l ^= s[0];
+        r ^= f(s, l) ^ s[1];
+        l ^= f(s, r) ^ s[2];
+        r ^= f(s, l) ^ s[3];
+        l ^= f(s, r) ^ s[4];
+        r ^= f(s, l) ^ s[5];
+        l ^= f(s, r) ^ s[6];
+        r ^= f(s, l) ^ s[7];
+        l ^= f(s, r) ^ s[8];
+        r ^= f(s, l) ^ s[9];
+        l ^= f(s, r) ^ s[10];
+        r ^= f(s, l) ^ s[11];
+        l ^= f(s, r) ^ s[12];
+        r ^= f(s, l) ^ s[13];
+        l ^= f(s, r) ^ s[14];
+        r ^= f(s, l) ^ s[15];
+        l ^= f(s, r) ^ s[16];
+        return ((long) (r ^ s[17]) << 32) | (l & 0xffffffffL);
     }
 
     /**
-     * Cycically extract a word of key material
+     * Cycically extract enough words of key material to cover the
+     * P array, computing both the correct and the sign-extension bug
+     * variants in one pass
      * @param data	the string to extract the data from
-     * @param offp	a "pointer" (as a one-entry array) to the
-     * current offset into data
-     * @return	the next word of material from data
+     * @param words	an array to fill with the correct words of material
+     * @param bug_words	an array to fill with the buggy words of material
+     * @return	the cumulative flag for non-benign sign extension
      */
-    private static int streamtoword(byte data[], int offp[]) {
-        int signp[] = { 0 };
-        return streamtowords(data, offp, signp)[0];
+    static int streamtowords(byte data[], int words[], int bug_words[]) {
+        return streamtowords(data, data.length, words, bug_words);
     }
 
     /**
-     * Cycically extract a word of key material, with sign-extension bug
-     * @param data	the string to extract the data from
-     * @param offp	a "pointer" (as a one-entry array) to the
-     * current offset into data
-     * @return	the next word of material from data
+     * Cycically extract enough words of key material to cover the
+     * P array from the start of a buffer, as streamtowords
+     * @param data	the buffer to extract the data from
+     * @param len	the number of bytes of data in the buffer
+     * @param words	an array to fill with the correct words of material
+     * @param bug_words	an array to fill with the buggy words of material
+     * @return	the cumulative flag for non-benign sign extension
      */
-    private static int streamtoword_bug(byte data[], int offp[]) {
-        int signp[] = { 0 };
-        return streamtowords(data, offp, signp)[1];
+    static int streamtowords(byte data[], int len, int words[],
+            int bug_words[]) {
+        int i, j, w, b;
+        int off = 0, sign = 0;
+
+        for (i = 0; i < words.length; i++) {
+            w = 0;
+            b = 0;
+            for (j = 0; j < 4; j++) {
+                w = (w << 8) | (data[off] & 0xff);
+                b = (b << 8) | (int)data[off];
+                if (j > 0) sign |= b & 0x80;
+                if (++off == len) off = 0;
+            }
+            words[i] = w;
+            bug_words[i] = b;
+        }
+        return sign;
     }
 
     /**
      * Initialise the Blowfish key schedule
      */
-    private void init_key() {
-        P = (int[]) P_orig.clone();
-        S = (int[]) S_orig.clone();
+    void init_key() {
+        System.arraycopy(P_orig, 0, state, 0, P_LEN);
+        System.arraycopy(S_orig, 0, state, S0, S_orig.length);
     }
 
     /**
      * Key the Blowfish cipher
-     * @param key	an array containing the key
-     * @param sign_ext_bug	true to implement the 2x bug
+     * @param key_words	the key, as expanded by streamtowords
      */
-    private void key(byte key[], boolean sign_ext_bug) {
-        int i;
-        int koffp[] = {0};
-        int lr[] = {0, 0};
-        int plen = P.length, slen = S.length;
-
-        for (i = 0; i < plen; i++) {
-            if (!sign_ext_bug)
-                P[i] = P[i] ^ streamtoword(key, koffp);
-            else
-                P[i] = P[i] ^ streamtoword_bug(key, koffp);
-        }
+    void key(int key_words[]) {
+        int i, l = 0, r = 0;
+        int s[] = state;
+        long lr;
 
-        for (i = 0; i < plen; i += 2) {
-            encipher(lr, 0);
-            P[i] = lr[0];
-            P[i + 1] = lr[1];
-        }
+        for (i = 0; i < P_LEN; i++)
+            s[i] ^= key_words[i];
 
-        for (i = 0; i < slen; i += 2) {
-            encipher(lr, 0);
-            S[i] = lr[0];
-            S[i + 1] = lr[1];
+        for (i = 0; i < STATE_LEN; i += 2) {
+            lr = encipher(s, l, r);
+            s[i] = l = (int) (lr >>> 32);
+            s[i + 1] = r = (int) lr;
         }
     }
 
@@ -607,28 +523,27 @@ public class BCrypt {
      * Perform the "enhanced key schedule" step described by
      * Provos and Mazieres in "A Future-Adaptable Password Scheme"
      * http://www.openbsd.org/papers/bcrypt-paper.ps
-     * @param data			salt information
-     * @param key			password information
+     * @param salt_words	salt information, as expanded by streamtowords
+     * @param key_words		password information, as expanded by
+     * streamtowords
+     * @param key_bug_words	password information with the 2x bug
+     * @param sign		the non-benign sign-extension flag for the password
      * @param sign_ext_bug	true to implement the 2x bug
      * @param safety		bit 16 is set when the safety measure is requested
      */
-    private void ekskey(byte data[], byte key[],
-            boolean sign_ext_bug, int safety) {
-        int i;
-        int koffp[] = {0}, doffp[] = {0};
-        int lr[] = {0, 0};
-        int plen = P.length, slen = S.length;
-        int signp[] = { 0 }; // non-benign sign-extension flag
+    void ekskey(int salt_words[], int key_words[],
+            int key_bug_words[], int sign, boolean sign_ext_bug, int safety) {
+        int i, l = 0, r = 0;
+        int doff = 0;
+        int s[] = state;
         int diff = 0;        // zero iff correct and buggy are same
+        long lr;
 
-        for (i = 0; i < plen; i++) {
-            int words[] = streamtowords(key, koffp, signp);
-            diff |= words[0] ^ words[1];
-            P[i] = P[i] ^ words[sign_ext_bug ? 1 : 0];
+        for (i = 0; i < P_LEN; i++) {
+            diff |= key_words[i] ^ key_bug_words[i];
+            s[i] ^= sign_ext_bug ? key_bug_words[i] : key_words[i];
         }
 
-        int sign = signp[0];
-
         /*
          * At this point, "diff" is zero iff the correct and buggy algorithms produced
          * exactly the same result.  If so and if "sign" is non-zero, which indicates
@@ -655,22 +570,16 @@ public class BCrypt {
          * state that could be directly specified by a password to the buggy algorithm
          * (and to the fully correct one as well, but that's a side-effect).
          */
-        P[0] ^= sign;
-
-        for (i = 0; i < plen; i += 2) {
-            lr[0] ^= streamtoword(data, doffp);
-            lr[1] ^= streamtoword(data, doffp);
-            encipher(lr, 0);
-            P[i] = lr[0];
-            P[i + 1] = lr[1];
-        }
+        s[0] ^= sign;
 
-        for (i = 0; i < slen; i += 2) {
-            lr[0] ^= streamtoword(data, doffp);
-            lr[1] ^= streamtoword(data, doffp);
-            encipher(lr, 0);
-            S[i] = lr[0];
-            S[i + 1] = lr[1];
+        // The salt is exactly four words long, so its key stream repeats
+        // every four words.
+        for (i = 0; i < STATE_LEN; i += 2) {
+            l ^= salt_words[doff++ & 3];
+            r ^= salt_words[doff++ & 3];
+            lr = encipher(s, l, r);
+            s[i] = l = (int) (lr >>> 32);
+            s[i + 1] = r = (int) lr;
         }
     }
 
@@ -683,33 +592,284 @@ public class BCrypt {
      * of rounds of hashing to apply
      * @param sign_ext_bug	true to implement the 2x bug
      * @param safety		bit 16 is set when the safety measure is requested
-     * @param cdata         the plaintext to encrypt
      * @return	an array containing the binary hashed password
      */
-    private byte[] crypt_raw(byte password[], byte salt[], int log_rounds,
-            boolean sign_ext_bug, int safety, int cdata[]) {
-        int rounds, i, j;
-        int clen = cdata.length;
-        byte ret[];
+    byte[] crypt_raw(byte password[], byte salt[], int log_rounds,
+            boolean sign_ext_bug, int safety) {
+        return eks_run(eks_setup(password, salt, log_rounds, sign_ext_bug,
+                    safety), log_rounds);
+    }
+
+    /**
+     * Check the cost and salt, expand the salt and password and run
+     * the initial key schedule: everything that comes before the
+     * expensive loop of crypt_raw
+     * @param password	the password to hash
+     * @param salt	the binary salt to hash with the password
+     * @param log_rounds	the binary logarithm of the number
+     * of rounds of hashing to apply
+     * @param sign_ext_bug	true to implement the 2x bug
+     * @param safety		bit 16 is set when the safety measure is requested
+     * @return	the password words to key with in the expensive loop
+     */
+    int[] eks_setup(byte password[], byte salt[], int log_rounds,
+            boolean sign_ext_bug, int safety) {
+        return eks_setup(password, password.length, salt, log_rounds,
+                sign_ext_bug, safety);
+    }
+
+    /**
+     * Set up a hash of the password at the start of a buffer, as
+     * eks_setup
+     * @param password	the buffer holding the password to hash
+     * @param password_len	the length of the password
+     * @param salt	the binary salt to hash with the password
+     * @param log_rounds	the binary logarithm of the number
+     * of rounds of hashing to apply
+     * @param sign_ext_bug	true to implement the 2x bug
+     * @param safety		bit 16 is set when the safety measure is requested
+     * @return	the password words to key with in the expensive loop
+     */
+    private int[] eks_setup(byte password[], int password_len, byte salt[],
+            int log_rounds, boolean sign_ext_bug, int safety) {
+        int sign;
 
         if (log_rounds < 4 || log_rounds > 30) {
             throw new IllegalArgumentException("Bad number of rounds");
         }
-        rounds = 1 << log_rounds;
         if (salt.length != BCRYPT_SALT_LEN) {
             throw new IllegalArgumentException("Bad salt length");
         }
 
+        // Expand the salt and password once; the expensive loop
+        // only XORs these words into P. The salt's buggy words are not
+        // needed, so key_bug_words is used as scratch before being filled.
+        streamtowords(salt, salt_words, key_bug_words);
+        sign = streamtowords(password, password_len, key_words,
+                key_bug_words);
+
         init_key();
-        ekskey(salt, password, sign_ext_bug, safety);
-        for (i = 0; i != rounds; i++) {
-            key(password, sign_ext_bug);
-            key(salt, false);
+        ekskey(salt_words, key_words, key_bug_words, sign, sign_ext_bug,
+                safety);
+        return sign_ext_bug ? key_bug_words : key_words;
+    }
+
+    /**
+     * Set up a hash with the variant of the algorithm selected by
+     * a minor version, as eks_setup
+     * @param passwordb	the password to hash, as a byte array
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param saltb	the binary salt to hash with the password
+     * @param log_rounds	the binary logarithm of the number
+     * of rounds of hashing to apply
+     * @return	the password words to key with in the expensive loop
+     */
+    int[] eks_setup(byte passwordb[], char minor, byte saltb[],
+            int log_rounds) {
+        return eks_setup(encode(passwordb), minor, saltb, log_rounds);
+    }
+
+    /**
+     * Set up a hash of the password in key_bytes, as eks_setup, and
+     * wipe key_bytes
+     * @param len	the length of the password in key_bytes
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param saltb	the binary salt to hash with the password
+     * @param log_rounds	the binary logarithm of the number
+     * of rounds of hashing to apply
+     * @return	the password words to key with in the expensive loop
+     * @exception IllegalArgumentException if the password is empty
+     * and minor is 0, as "$2$" does not add a terminator
+     */
+    private int[] eks_setup(int len, char minor, byte saltb[],
+            int log_rounds) {
+        try {
+            if (minor >= 'a') // add null terminator
+                key_bytes[len++] = 0;
+            if (len == 0)
+                throw new IllegalArgumentException("Empty password");
+
+            return eks_setup(key_bytes, len, saltb, log_rounds,
+                    minor == 'x',  // true for sign extension bug ('2x')
+                    minor == 'a' ? 0x10000 : 0); // safety factor for '2a'
+        } finally {
+            Arrays.fill(key_bytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Copy as much of a password as can affect the hash into key_bytes
+     * @param passwordb	the password, as a byte array
+     * @return	the number of bytes copied
+     */
+    private int encode(byte passwordb[]) {
+        int len = Math.min(passwordb.length, MAX_KEY_LEN);
+
+        System.arraycopy(passwordb, 0, key_bytes, 0, len);
+        return len;
+    }
+
+    /**
+     * Copy as much of a password as can affect the hash into key_bytes,
+     * from the remaining bytes of a buffer. The buffer's position is
+     * not changed.
+     * @param passwordb	the password, as a byte buffer
+     * @return	the number of bytes copied
+     */
+    private int encode(ByteBuffer passwordb) {
+        int len = Math.min(passwordb.remaining(), MAX_KEY_LEN);
+        int pos = passwordb.position();
+
+        for (int i = 0; i < len; i++) {
+            key_bytes[i] = passwordb.get(pos + i);
+        }
+        return len;
+    }
+
+    /**
+     * Encode as much of a password as can affect the hash into
+     * key_bytes, as UTF-8. The bytes are the same as the start of
+     * String.getBytes("UTF-8"), which replaces a lone surrogate with '?'.
+     * @param password	the password
+     * @return	the number of bytes encoded
+     */
+    private int encode(CharSequence password) {
+        int n = password.length();
+        int len = 0;
+
+        for (int i = 0; i < n && len < MAX_KEY_LEN; i++) {
+            char c = password.charAt(i);
+            if (c < 0x80) {
+                key_bytes[len++] = (byte) c;
+            } else if (c < 0x800) {
+                len = put(len, 0xc0 | c >> 6);
+                len = put(len, 0x80 | c & 0x3f);
+            } else if (!Character.isSurrogate(c)) {
+                len = put(len, 0xe0 | c >> 12);
+                len = put(len, 0x80 | c >> 6 & 0x3f);
+                len = put(len, 0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n &&
+                    Character.isLowSurrogate(password.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, password.charAt(++i));
+                len = put(len, 0xf0 | cp >> 18);
+                len = put(len, 0x80 | cp >> 12 & 0x3f);
+                len = put(len, 0x80 | cp >> 6 & 0x3f);
+                len = put(len, 0x80 | cp & 0x3f);
+            } else {
+                key_bytes[len++] = '?';
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Store a byte of an encoded password if it can affect the hash
+     * @param len	the number of bytes encoded so far
+     * @param b	the byte
+     * @return	the new number of bytes encoded
+     */
+    private int put(int len, int b) {
+        if (len < MAX_KEY_LEN)
+            key_bytes[len++] = (byte) b;
+        return len;
+    }
+
+    /**
+     * Run the expensive loop and finish the hash
+     * @param pw_words	the password words returned by eks_setup
+     * @param log_rounds	the binary logarithm of the number
+     * of rounds of hashing to apply
+     * @return	an array containing the binary hashed password
+     */
+    byte[] eks_run(int pw_words[], int log_rounds) {
+        int rounds = 1 << log_rounds;
+
+        for (int i = 0; i != rounds; i++) {
+            key(pw_words);
+            key(salt_words);
+        }
+        return eks_finish();
+    }
+
+    /**
+     * Run the expensive loop and finish the hash, giving up if it
+     * takes too long or the thread is interrupted. The timeout is
+     * checked every CHECK_ROUNDS rounds.
+     * @param pw_words	the password words returned by eks_setup
+     * @param log_rounds	the binary logarithm of the number
+     * of rounds of hashing to apply
+     * @param timeout_nanos	the time allowed, or NO_TIMEOUT to run to
+     * completion regardless of time and interrupts
+     * @return	an array containing the binary hashed password
+     * @exception BCryptTimeoutException if the hash was abandoned
+     */
+    private byte[] eks_run(int pw_words[], int log_rounds,
+            long timeout_nanos) throws BCryptTimeoutException {
+        if (timeout_nanos == NO_TIMEOUT) {
+            return eks_run(pw_words, log_rounds);
+        }
+
+        int rounds = 1 << log_rounds;
+        long start = System.nanoTime();
+        for (int i = 0; i != rounds; i += CHECK_ROUNDS) {
+            check_timeout(start, timeout_nanos);
+            for (int j = 0; j < CHECK_ROUNDS; j++) {
+                key(pw_words);
+                key(salt_words);
+            }
+        }
+        return eks_finish();
+    }
+
+    /**
+     * Abandon the hash in progress, wiping the key material, if the
+     * thread has been interrupted or the time allowed has passed. The
+     * interrupt status of the thread is left set.
+     * @param start	the value of System.nanoTime() at the start
+     * @param timeout_nanos	the time allowed
+     * @exception BCryptTimeoutException if the hash was abandoned
+     */
+    private void check_timeout(long start, long timeout_nanos)
+            throws BCryptTimeoutException {
+        boolean interrupted = Thread.currentThread().isInterrupted();
+
+        if (interrupted || System.nanoTime() - start >= timeout_nanos) {
+            wipe();
+            throw new BCryptTimeoutException(interrupted ?
+                    "Hashing interrupted" : "Hashing timed out", interrupted);
         }
+    }
+
+    /**
+     * Wipe the expanded password and the key schedule of an abandoned
+     * hash
+     */
+    void wipe() {
+        Arrays.fill(key_bytes, (byte) 0);
+        Arrays.fill(key_words, 0);
+        Arrays.fill(key_bug_words, 0);
+        Arrays.fill(state, 0);
+    }
 
+    /**
+     * Wipe the expanded password and encrypt the magic ciphertext
+     * with the key schedule left by the expensive loop
+     * @return	an array containing the binary hashed password
+     */
+    byte[] eks_finish() {
+        int i, j;
+        int clen = cdata.length;
+        byte ret[];
+
+        Arrays.fill(key_words, 0);
+        Arrays.fill(key_bug_words, 0);
+
+        System.arraycopy(bf_crypt_ciphertext, 0, cdata, 0, clen);
         for (i = 0; i < 64; i++) {
-            for (j = 0; j < (clen >> 1); j++) {
-                encipher(cdata, j << 1);
+            for (j = 0; j < clen; j += 2) {
+                long lr = encipher(state, cdata[j], cdata[j + 1]);
+                cdata[j] = (int) (lr >>> 32);
+                cdata[j + 1] = (int) lr;
             }
         }
 
@@ -728,7 +888,7 @@ public class BCrypt {
      * @param plaintext		the plaintext password to convert
      * @return Byte representation of given plaintext.
      */
-    private static byte[] stringToBytes(String plaintext) {
+    static byte[] stringToBytes(String plaintext) {
         byte plaintextb[];
 
         try {
@@ -748,9 +908,45 @@ public class BCrypt {
      * @return	the hashed password
      */
     public static String hashpw(String password, String salt) {
-        byte passwordb[] = stringToBytes(password);
+        return engines.get().hash(password, salt);
+    }
+
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme, without copying
+     * it into a String. The caller may wipe the array afterwards.
+     * @param password	the password to hash
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @return	the hashed password
+     */
+    public static String hashpw(char password[], String salt) {
+        return engines.get().hash(password, salt);
+    }
+
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme, without copying
+     * it into a String. This accepts a CharBuffer, whose remaining
+     * characters are hashed.
+     * @param password	the password to hash
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @return	the hashed password
+     */
+    public static String hashpw(CharSequence password, String salt) {
+        return engines.get().hash(password, salt);
+    }
 
-        return hashpw(passwordb, salt);
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme, without copying
+     * it into a byte array. The remaining bytes of the buffer are
+     * hashed, and its position is not changed.
+     * @param passwordb	the password to hash, as a byte buffer
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @return	the hashed password
+     */
+    public static String hashpw(ByteBuffer passwordb, String salt) {
+        return engines.get().hash(passwordb, salt);
     }
 
     /**
@@ -761,64 +957,205 @@ public class BCrypt {
      * @return	the hashed password
      */
     public static String hashpw(byte passwordb[], String salt) {
-        BCrypt B;
-        String real_salt;
-        byte saltb[], hashed[];
-        char minor = (char) 0;
-        int rounds, off = 0;
-        StringBuilder rs = new StringBuilder();
-
-        if (salt.charAt(0) != '$' || salt.charAt(1) != '2') {
-            throw new IllegalArgumentException("Invalid salt version");
-        }
-        if (salt.charAt(2) == '$') {
-            off = 3;
-        } else {
-            minor = salt.charAt(2);
-            if ((minor != 'a' && minor != 'x' && minor != 'y' && minor != 'b')
-                    || salt.charAt(3) != '$') {
-                throw new IllegalArgumentException("Invalid salt revision");
-            }
-            off = 4;
-        }
+        return engines.get().hash(passwordb, salt);
+    }
 
-        // Extract number of rounds
-        if (salt.charAt(off + 2) > '$') {
-            throw new IllegalArgumentException("Missing salt rounds");
-        }
-        rounds = Integer.parseInt(salt.substring(off, off + 2));
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme, giving up if it
+     * takes longer than a timeout or the thread is interrupted. The
+     * timeout is checked every few rounds of the expensive loop, so
+     * an abandoned hash stops using the CPU promptly.
+     * @param password	the password to hash
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @param timeout	the time allowed
+     * @param unit	the unit of timeout
+     * @return	the hashed password
+     * @exception BCryptTimeoutException if the time ran out or the
+     * thread was interrupted
+     */
+    public static String hashpw(String password, String salt, long timeout,
+            TimeUnit unit) throws BCryptTimeoutException {
+        return engines.get().hash(password, salt, timeout, unit);
+    }
+
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme, giving up if it
+     * takes longer than a timeout or the thread is interrupted
+     * @param passwordb	the password to hash, as a byte array
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @param timeout	the time allowed
+     * @param unit	the unit of timeout
+     * @return	the hashed password
+     * @exception BCryptTimeoutException if the time ran out or the
+     * thread was interrupted
+     */
+    public static String hashpw(byte passwordb[], String salt, long timeout,
+            TimeUnit unit) throws BCryptTimeoutException {
+        return engines.get().hash(passwordb, salt, timeout, unit);
+    }
+
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme, reusing this
+     * engine's buffers
+     * @param password	the password to hash
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @return	the hashed password
+     */
+    public String hash(String password, String salt) {
+        return hash(encode(password), salt, NO_TIMEOUT);
+    }
+
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme, reusing this
+     * engine's buffers
+     * @param password	the password to hash
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @return	the hashed password
+     */
+    public String hash(char password[], String salt) {
+        return hash(encode(CharBuffer.wrap(password)), salt, NO_TIMEOUT);
+    }
+
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme, reusing this
+     * engine's buffers
+     * @param password	the password to hash
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @return	the hashed password
+     */
+    public String hash(CharSequence password, String salt) {
+        return hash(encode(password), salt, NO_TIMEOUT);
+    }
+
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme, reusing this
+     * engine's buffers
+     * @param passwordb	the password to hash, as a byte buffer
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @return	the hashed password
+     */
+    public String hash(ByteBuffer passwordb, String salt) {
+        return hash(encode(passwordb), salt, NO_TIMEOUT);
+    }
 
-        real_salt = salt.substring(off + 3, off + 25);
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme, reusing this
+     * engine's buffers
+     * @param passwordb	the password to hash, as a byte array
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @return	the hashed password
+     */
+    public String hash(byte passwordb[], String salt) {
+        return hash(encode(passwordb), salt, NO_TIMEOUT);
+    }
 
-        saltb = decode_base64(real_salt, BCRYPT_SALT_LEN);
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme, reusing this
+     * engine's buffers, giving up if it takes longer than a timeout or
+     * the thread is interrupted
+     * @param password	the password to hash
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @param timeout	the time allowed
+     * @param unit	the unit of timeout
+     * @return	the hashed password
+     * @exception BCryptTimeoutException if the time ran out or the
+     * thread was interrupted
+     */
+    public String hash(String password, String salt, long timeout,
+            TimeUnit unit) throws BCryptTimeoutException {
+        return hash(encode(password), salt,
+                unit.toNanos(Math.max(timeout, 0)));
+    }
 
-        if (minor >= 'a') // add null terminator
-            passwordb = Arrays.copyOf(passwordb, passwordb.length + 1);
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme, reusing this
+     * engine's buffers, giving up if it takes longer than a timeout or
+     * the thread is interrupted
+     * @param passwordb	the password to hash, as a byte array
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @param timeout	the time allowed
+     * @param unit	the unit of timeout
+     * @return	the hashed password
+     * @exception BCryptTimeoutException if the time ran out or the
+     * thread was interrupted
+     */
+    public String hash(byte passwordb[], String salt, long timeout,
+            TimeUnit unit) throws BCryptTimeoutException {
+        return hash(encode(passwordb), salt,
+                unit.toNanos(Math.max(timeout, 0)));
+    }
 
-        B = new BCrypt();
-        hashed = B.crypt_raw(passwordb, saltb, rounds,
-                minor == 'x',  // true for sign extension bug ('2x')
-                minor == 'a' ? 0x10000 : 0, // safety factor for '2a'
-                (int[])bf_crypt_ciphertext.clone());
+    /**
+     * Hash the password in key_bytes using the OpenBSD bcrypt scheme,
+     * and wipe key_bytes
+     * @param password_len	the length of the password in key_bytes
+     * @param salt	the salt to hash with
+     * @param timeout_nanos	the time allowed, or NO_TIMEOUT
+     * @return	the hashed password
+     */
+    private String hash(int password_len, String salt, long timeout_nanos) {
+        BCryptMetrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+        Object event = BCryptEvents.beginHash();
+        byte hashed[];
+        char minor;
+        int rounds, off, len;
 
-        rs.append("$2");
-        if (minor >= 'a') {
-            rs.append(minor);
+        try {
+            minor = BCryptHash.parseMinor(salt);
+            off = minor == 0 ? 3 : 4;
+            if (salt.length() < off + 3 + BCryptHash.ENCODED_SALT_LEN) {
+                throw new IllegalArgumentException("Invalid salt length");
+            }
+            rounds = BCryptHash.parseRounds(salt, off);
+            BCryptBase64.decode(salt, off + 3, BCryptHash.ENCODED_SALT_LEN,
+                    saltb, 0);
+        } catch (IllegalArgumentException iae) {
+            Arrays.fill(key_bytes, (byte) 0);
+            throw iae;
         }
-        rs.append("$");
-        if (rounds < 10) {
-            rs.append("0");
+
+        try {
+            hashed = crypt(password_len, minor, saltb, rounds, timeout_nanos);
+        } catch (BCryptTimeoutException bte) {
+            BCryptEvents.endHash(event, minor, rounds, "timeout");
+            if (m != null) {
+                m.timedOut(minor, rounds, System.nanoTime() - start);
+            }
+            throw bte;
         }
-        if (rounds > 30) {
-            throw new IllegalArgumentException(
-                    "rounds exceeds maximum (30)");
+        len = BCryptHash.format(minor, rounds, saltb, hashed, hash_chars);
+        BCryptEvents.endHash(event, minor, rounds, "hashed");
+        if (m != null) {
+            m.hashed(minor, rounds, System.nanoTime() - start);
         }
-        rs.append(Integer.toString(rounds));
-        rs.append("$");
-        rs.append(encode_base64(saltb, saltb.length));
-        rs.append(encode_base64(hashed,
-                bf_crypt_ciphertext.length * 4 - 1));
-        return rs.toString();
+        return new String(hash_chars, 0, len);
+    }
+
+    /**
+     * Hash the password in key_bytes with the variant of the algorithm
+     * selected by a minor version
+     * @param password_len	the length of the password in key_bytes
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param saltb	the binary salt to hash with the password
+     * @param rounds	the binary logarithm of the number
+     * of rounds of hashing to apply
+     * @param timeout_nanos	the time allowed, or NO_TIMEOUT
+     * @return	an array containing the binary hashed password
+     */
+    private byte[] crypt(int password_len, char minor, byte saltb[],
+            int rounds, long timeout_nanos) {
+        return eks_run(eks_setup(password_len, minor, saltb, rounds), rounds,
+                timeout_nanos);
     }
 
     /**
@@ -833,9 +1170,28 @@ public class BCrypt {
      */
     public static String gensalt(String prefix, int log_rounds, SecureRandom random)
             throws IllegalArgumentException {
-        StringBuilder rs = new StringBuilder();
+        char rs[] = new char[BCryptHash.SALT_STRING_LEN];
         byte rnd[] = new byte[BCRYPT_SALT_LEN];
+        Object event = BCryptEvents.beginGensalt();
+        char minor = checkGensalt(prefix, log_rounds);
+        int len;
 
+        random.nextBytes(rnd);
+        len = BCryptHash.formatSalt(minor, log_rounds, rnd, rs);
+        BCryptEvents.endGensalt(event, minor, log_rounds);
+        return new String(rs, 0, len);
+    }
+
+    /**
+     * Check the parameters for generating a salt
+     * @param prefix		the prefix value
+     * @param log_rounds	the log2 of the number of rounds of
+     * hashing to apply
+     * @return	the minor version selected by the prefix
+     * @exception IllegalArgumentException if prefix or log_rounds is invalid
+     */
+    static char checkGensalt(String prefix, int log_rounds)
+            throws IllegalArgumentException {
         if (!prefix.startsWith("$2") ||
                 (prefix.charAt(2) != 'a' && prefix.charAt(2) != 'y') &&
                  prefix.charAt(2) != 'b') {
@@ -844,27 +1200,16 @@ public class BCrypt {
         if (log_rounds < 4 || log_rounds > 31) {
             throw new IllegalArgumentException ("Invalid log_rounds");
         }
-
-        random.nextBytes(rnd);
-
-        rs.append("$2");
-        rs.append(prefix.charAt(2));
-        rs.append("$");
-        if (log_rounds < 10) {
-            rs.append("0");
-        }
         if (log_rounds > 30) {
             throw new IllegalArgumentException(
                     "log_rounds exceeds maximum (30)");
         }
-        rs.append(Integer.toString(log_rounds));
-        rs.append("$");
-        rs.append(encode_base64(rnd, rnd.length));
-        return rs.toString();
+        return prefix.charAt(2);
     }
 
     /**
-     * Generate a salt for use with the BCrypt.hashpw() method
+     * Generate a salt for use with the BCrypt.hashpw() method, using
+     * a per-thread SaltGenerator
      * @param prefix		the prefix value (default $2y)
      * @param log_rounds	the log2 of the number of rounds of
      * hashing to apply - the work factor therefore increases as
@@ -874,7 +1219,7 @@ public class BCrypt {
      */
     public static String gensalt(String prefix, int log_rounds)
             throws IllegalArgumentException {
-        return gensalt(prefix, log_rounds, new SecureRandom());
+        return SaltGenerator.current().gensalt(prefix, log_rounds);
     }
 
     /**
@@ -892,7 +1237,8 @@ public class BCrypt {
     }
 
     /**
-     * Generate a salt for use with the BCrypt.hashpw() method
+     * Generate a salt for use with the BCrypt.hashpw() method, using
+     * a per-thread SaltGenerator
      * @param log_rounds	the log2 of the number of rounds of
      * hashing to apply - the work factor therefore increases as
      * 2**log_rounds.
@@ -901,7 +1247,21 @@ public class BCrypt {
      */
     public static String gensalt(int log_rounds)
             throws IllegalArgumentException {
-        return gensalt(log_rounds, new SecureRandom());
+        return gensalt("$2y", log_rounds);
+    }
+
+    /**
+     * Generate a salt for use with the BCrypt.hashpw() method, with
+     * the largest number of hashing rounds that takes no longer than
+     * a target latency on this machine (see BCryptCalibration)
+     * @param target	the target latency for hashing a password
+     * @param unit	the unit of target
+     * @return	an encoded salt value
+     * @exception IllegalArgumentException if target is invalid
+     */
+    public static String gensalt(long target, TimeUnit unit)
+            throws IllegalArgumentException {
+        return gensalt(BCryptCalibration.calibrate(target, unit));
     }
 
     /**
@@ -921,11 +1281,53 @@ public class BCrypt {
      * one
      * @param plaintext	the plaintext password to verify
      * @param hashed	the previously-hashed password
-     * @return	true if the passwords match, false otherwise
+     * @return	true if the passwords match, false otherwise, including
+     * when hashed has a valid salt but the wrong length or a
+     * non-canonical encoding
+     * @exception IllegalArgumentException if hashed does not start
+     * with a valid version, cost and salt
      */
     public static boolean checkpw(String plaintext, String hashed) {
-        byte plaintextb[] = stringToBytes(plaintext);
-        return checkpw(plaintextb, hashed);
+        return engines.get().verify(plaintext, hashed);
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * one, without copying it into a String
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalArgumentException if hashed is malformed
+     */
+    public static boolean checkpw(char plaintext[], String hashed) {
+        return engines.get().verify(plaintext, hashed);
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * one, without copying it into a String. This accepts a
+     * CharBuffer, whose remaining characters are checked.
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalArgumentException if hashed is malformed
+     */
+    public static boolean checkpw(CharSequence plaintext, String hashed) {
+        return engines.get().verify(plaintext, hashed);
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * one, without copying it into a byte array. The remaining bytes
+     * of the buffer are checked, and its position is not changed.
+     * @param plaintext	the plaintext password to verify, as a byte
+     * buffer
+     * @param hashed	the previously-hashed password
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalArgumentException if hashed is malformed
+     */
+    public static boolean checkpw(ByteBuffer plaintext, String hashed) {
+        return engines.get().verify(plaintext, hashed);
     }
 
     /**
@@ -933,23 +1335,416 @@ public class BCrypt {
      * one
      * @param plaintext	the plaintext password to verify
      * @param hashed	the previously-hashed password
-     * @return	true if the passwords match, false otherwise
+     * @return	true if the passwords match, false otherwise, including
+     * when hashed has a valid salt but the wrong length or a
+     * non-canonical encoding
+     * @exception IllegalArgumentException if hashed does not start
+     * with a valid version, cost and salt
      */
     public static boolean checkpw(byte[] plaintext, String hashed) {
-        byte hashed_bytes[];
-        byte try_bytes[];
+        return engines.get().verify(plaintext, hashed);
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * one, giving up if it takes longer than a timeout or the thread
+     * is interrupted
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @param timeout	the time allowed
+     * @param unit	the unit of timeout
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalArgumentException if hashed is malformed
+     * @exception BCryptTimeoutException if the time ran out or the
+     * thread was interrupted
+     */
+    public static boolean checkpw(String plaintext, String hashed,
+            long timeout, TimeUnit unit) throws BCryptTimeoutException {
+        return engines.get().verify(plaintext, hashed, timeout, unit);
+    }
+
+    /**
+     * Check that a plaintext byte[] password matches a previously hashed
+     * one, giving up if it takes longer than a timeout or the thread
+     * is interrupted
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @param timeout	the time allowed
+     * @param unit	the unit of timeout
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalArgumentException if hashed is malformed
+     * @exception BCryptTimeoutException if the time ran out or the
+     * thread was interrupted
+     */
+    public static boolean checkpw(byte[] plaintext, String hashed,
+            long timeout, TimeUnit unit) throws BCryptTimeoutException {
+        return engines.get().verify(plaintext, hashed, timeout, unit);
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * and parsed one
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	true if the passwords match, false otherwise
+     */
+    public static boolean checkpw(String plaintext, BCryptHash hashed) {
+        return engines.get().verify(plaintext, hashed);
+    }
+
+    /**
+     * Check that a plaintext byte[] password matches a previously
+     * hashed and parsed one
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	true if the passwords match, false otherwise
+     */
+    public static boolean checkpw(byte[] plaintext, BCryptHash hashed) {
+        return engines.get().verify(plaintext, hashed);
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * one, reusing this engine's buffers
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalArgumentException if hashed is malformed
+     */
+    public boolean verify(String plaintext, String hashed) {
+        return verify(encode(plaintext), hashed, NO_TIMEOUT);
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * one, reusing this engine's buffers
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalArgumentException if hashed is malformed
+     */
+    public boolean verify(char plaintext[], String hashed) {
+        return verify(encode(CharBuffer.wrap(plaintext)), hashed, NO_TIMEOUT);
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * one, reusing this engine's buffers
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalArgumentException if hashed is malformed
+     */
+    public boolean verify(CharSequence plaintext, String hashed) {
+        return verify(encode(plaintext), hashed, NO_TIMEOUT);
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * one, reusing this engine's buffers
+     * @param plaintext	the plaintext password to verify, as a byte
+     * buffer
+     * @param hashed	the previously-hashed password
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalArgumentException if hashed is malformed
+     */
+    public boolean verify(ByteBuffer plaintext, String hashed) {
+        return verify(encode(plaintext), hashed, NO_TIMEOUT);
+    }
+
+    /**
+     * Check that a plaintext byte[] password matches a previously hashed
+     * one, reusing this engine's buffers
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalArgumentException if hashed is malformed
+     */
+    public boolean verify(byte[] plaintext, String hashed) {
+        return verify(encode(plaintext), hashed, NO_TIMEOUT);
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * one, reusing this engine's buffers, giving up if it takes longer
+     * than a timeout or the thread is interrupted
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @param timeout	the time allowed
+     * @param unit	the unit of timeout
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalArgumentException if hashed is malformed
+     * @exception BCryptTimeoutException if the time ran out or the
+     * thread was interrupted
+     */
+    public boolean verify(String plaintext, String hashed, long timeout,
+            TimeUnit unit) throws BCryptTimeoutException {
+        return verify(encode(plaintext), hashed,
+                unit.toNanos(Math.max(timeout, 0)));
+    }
+
+    /**
+     * Check that a plaintext byte[] password matches a previously hashed
+     * one, reusing this engine's buffers, giving up if it takes longer
+     * than a timeout or the thread is interrupted
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @param timeout	the time allowed
+     * @param unit	the unit of timeout
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalArgumentException if hashed is malformed
+     * @exception BCryptTimeoutException if the time ran out or the
+     * thread was interrupted
+     */
+    public boolean verify(byte[] plaintext, String hashed, long timeout,
+            TimeUnit unit) throws BCryptTimeoutException {
+        return verify(encode(plaintext), hashed,
+                unit.toNanos(Math.max(timeout, 0)));
+    }
+
+    /**
+     * Check that the password in key_bytes matches a previously hashed
+     * one, and wipe key_bytes. As in earlier versions, which compared
+     * hashed with the output of hashpw, a hash that starts with a
+     * valid salt but is the wrong length or not canonically encoded
+     * simply does not match; it is counted as malformed.
+     * @param password_len	the length of the password in key_bytes
+     * @param hashed	the previously-hashed password
+     * @param timeout_nanos	the time allowed, or NO_TIMEOUT
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalArgumentException if hashed does not start
+     * with a valid version, cost and salt
+     */
+    private boolean verify(int password_len, String hashed,
+            long timeout_nanos) {
+        BCryptHash parsed = null;
+
         try {
-            String try_pw = hashpw(plaintext, hashed);
-            hashed_bytes = hashed.getBytes("UTF-8");
-            try_bytes = try_pw.getBytes("UTF-8");
-        } catch (UnsupportedEncodingException uee) {
-            return false;
+            parsed = BCryptHash.parseStored(hashed);
+        } finally {
+            if (parsed == null) {
+                Arrays.fill(key_bytes, (byte) 0);
+                reportMalformed();
+            }
+        }
+        return parsed != null && verify(password_len, parsed, timeout_nanos);
+    }
+
+    /**
+     * Report a check against a malformed hash to the metrics listener
+     * and JFR
+     */
+    static void reportMalformed() {
+        BCryptEvents.endVerify(BCryptEvents.beginVerify(), (char) 0, 0,
+                "malformed");
+        BCryptMetrics m = metrics;
+        if (m != null) {
+            m.malformed();
+        }
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * and parsed one, reusing this engine's buffers
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	true if the passwords match, false otherwise
+     */
+    public boolean verify(String plaintext, BCryptHash hashed) {
+        return verify(encode(plaintext), hashed, NO_TIMEOUT);
+    }
+
+    /**
+     * Check that a plaintext byte[] password matches a previously
+     * hashed and parsed one, reusing this engine's buffers. The
+     * digests are compared in constant time.
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	true if the passwords match, false otherwise
+     */
+    public boolean verify(byte[] plaintext, BCryptHash hashed) {
+        return verify(encode(plaintext), hashed, NO_TIMEOUT);
+    }
+
+    /**
+     * Check that the password in key_bytes matches a previously
+     * hashed and parsed one, in constant time
+     * @param password_len	the length of the password in key_bytes
+     * @param hashed	the previously-hashed password
+     * @param timeout_nanos	the time allowed, or NO_TIMEOUT
+     * @return	true if the passwords match, false otherwise
+     */
+    private boolean verify(int password_len, BCryptHash hashed,
+            long timeout_nanos) {
+        BCryptMetrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+        Object event = BCryptEvents.beginVerify();
+        byte try_digest[];
+        try {
+            try_digest = crypt(password_len, hashed.minor, hashed.salt,
+                    hashed.log_rounds, timeout_nanos);
+        } catch (BCryptTimeoutException bte) {
+            BCryptEvents.endVerify(event, hashed.minor, hashed.log_rounds,
+                    "timeout");
+            if (m != null) {
+                m.timedOut(hashed.minor, hashed.log_rounds,
+                        System.nanoTime() - start);
+            }
+            throw bte;
+        }
+        int ret = 0;
+        for (int i = 0; i < BCryptHash.DIGEST_LEN; i++)
+            ret |= hashed.digest[i] ^ try_digest[i];
+        BCryptEvents.endVerify(event, hashed.minor, hashed.log_rounds,
+                ret == 0 ? "match" : "mismatch");
+        if (m != null) {
+            m.verified(hashed.minor, hashed.log_rounds, ret == 0,
+                    System.nanoTime() - start);
         }
-        if (hashed_bytes.length != try_bytes.length)
-            return false;
-        byte ret = 0;
-        for (int i = 0; i < try_bytes.length; i++)
-            ret |= hashed_bytes[i] ^ try_bytes[i];
         return ret == 0;
     }
-}
\ No newline at end of file
+
+    /**
+     * Install a listener to be told the duration and outcome of every
+     * hash and verification made through this class. Calibration runs
+     * are not reported. When no listener is installed, the only cost
+     * is a read of a volatile field per call.
+     * @param listener	the listener, or null to disable metrics
+     */
+    public static void setMetrics(BCryptMetrics listener) {
+        metrics = listener;
+    }
+
+    /**
+     * @return	the installed metrics listener, or null if none
+     */
+    public static BCryptMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Run a task on an executor, turning a rejection into a failed
+     * future rather than an exception thrown to the caller
+     * @param task	the task to run
+     * @param executor	the executor to run it on
+     * @return	a future for the result of the task
+     */
+    private static <T> CompletableFuture<T> submit(Supplier<T> task,
+            Executor executor) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException ree) {
+            CompletableFuture<T> failed = new CompletableFuture<T>();
+            failed.completeExceptionally(ree);
+            return failed;
+        }
+    }
+
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme on the default
+     * bcrypt executor (see BCryptExecutors)
+     * @param password	the password to hash
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @return	a future for the hashed password
+     */
+    public static CompletableFuture<String> hashpwAsync(String password,
+            String salt) {
+        return hashpwAsync(password, salt, BCryptExecutors.defaultExecutor());
+    }
+
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme on the given
+     * executor
+     * @param password	the password to hash
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @param executor	the executor to hash on
+     * @return	a future for the hashed password
+     */
+    public static CompletableFuture<String> hashpwAsync(final String password,
+            final String salt, Executor executor) {
+        return submit(() -> hashpw(password, salt), executor);
+    }
+
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme on the default
+     * bcrypt executor (see BCryptExecutors). The password array must
+     * not be modified until the future completes.
+     * @param passwordb	the password to hash, as a byte array
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @return	a future for the hashed password
+     */
+    public static CompletableFuture<String> hashpwAsync(byte passwordb[],
+            String salt) {
+        return hashpwAsync(passwordb, salt, BCryptExecutors.defaultExecutor());
+    }
+
+    /**
+     * Hash a password using the OpenBSD bcrypt scheme on the given
+     * executor. The password array must not be modified until the
+     * future completes.
+     * @param passwordb	the password to hash, as a byte array
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @param executor	the executor to hash on
+     * @return	a future for the hashed password
+     */
+    public static CompletableFuture<String> hashpwAsync(final byte passwordb[],
+            final String salt, Executor executor) {
+        return submit(() -> hashpw(passwordb, salt), executor);
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * one on the default bcrypt executor (see BCryptExecutors)
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	a future that is true if the passwords match
+     */
+    public static CompletableFuture<Boolean> checkpwAsync(String plaintext,
+            String hashed) {
+        return checkpwAsync(plaintext, hashed, BCryptExecutors.defaultExecutor());
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * one on the given executor
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @param executor	the executor to verify on
+     * @return	a future that is true if the passwords match
+     */
+    public static CompletableFuture<Boolean> checkpwAsync(final String plaintext,
+            final String hashed, Executor executor) {
+        return submit(() -> checkpw(plaintext, hashed), executor);
+    }
+
+    /**
+     * Check that a plaintext byte[] password matches a previously hashed
+     * one on the default bcrypt executor (see BCryptExecutors). The
+     * password array must not be modified until the future completes.
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	a future that is true if the passwords match
+     */
+    public static CompletableFuture<Boolean> checkpwAsync(byte plaintext[],
+            String hashed) {
+        return checkpwAsync(plaintext, hashed, BCryptExecutors.defaultExecutor());
+    }
+
+    /**
+     * Check that a plaintext byte[] password matches a previously hashed
+     * one on the given executor. The password array must not be
+     * modified until the future completes.
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @param executor	the executor to verify on
+     * @return	a future that is true if the passwords match
+     */
+    public static CompletableFuture<Boolean> checkpwAsync(final byte plaintext[],
+            final String hashed, Executor executor) {
+        return submit(() -> checkpw(plaintext, hashed), executor);
+    }
+}
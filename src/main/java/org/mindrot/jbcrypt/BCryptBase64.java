@@ -0,0 +1,390 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * BCryptBase64 implements bcrypt's slightly-modified base64 encoding,
+ * which uses the alphabet "./A-Za-z0-9" and no padding. Note that this
+ * is *not* compatible with the standard MIME-base64 encoding.
+ * <p>
+ * All methods encode into or decode from caller-supplied buffers and
+ * allocate nothing, so they may be used on hot paths. The caller is
+ * responsible for sizing the destination; see encodedLength and
+ * decodedLength.
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public final class BCryptBase64 {
+    // Table for Base64 encoding
+    static private final char base64_code[] = {
+        '.', '/', 'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J',
+        'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V',
+        'W', 'X', 'Y', 'Z', 'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h',
+        'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p', 'q', 'r', 's', 't',
+        'u', 'v', 'w', 'x', 'y', 'z', '0', '1', '2', '3', '4', '5',
+        '6', '7', '8', '9'
+    };
+    // Table for Base64 decoding, covering all of US-ASCII
+    static private final byte index_64[] = {
+        -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+        -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+        -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 0, 1,
+        54, 55, 56, 57, 58, 59, 60, 61, 62, 63, -1, -1, -1, -1, -1, -1,
+        -1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16,
+        17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, -1, -1, -1, -1, -1,
+        -1, 28, 29, 30, 31, 32, 33, 34, 35, 36, 37, 38, 39, 40, 41, 42,
+        43, 44, 45, 46, 47, 48, 49, 50, 51, 52, 53, -1, -1, -1, -1, -1
+    };
+
+    private BCryptBase64() {
+    }
+
+    /**
+     * @param len	the number of bytes to encode
+     * @return	the number of characters they encode to
+     */
+    public static int encodedLength(int len) {
+        return (len * 8 + 5) / 6;
+    }
+
+    /**
+     * @param len	the number of characters to decode
+     * @return	the number of bytes they decode to
+     */
+    public static int decodedLength(int len) {
+        return len * 6 / 8;
+    }
+
+    /**
+     * Look up the 6 bits base64-encoded by the specified character.
+     * Characters outside US-ASCII are mapped to -1 without a branch:
+     * (0x7f - x) is negative exactly when x is out of range.
+     * @param x	the base64-encoded value
+     * @return	the decoded value of x, or -1 if x is not valid
+     */
+    static int char64(int x) {
+        return index_64[x & 0x7f] | ((0x7f - x) >> 31);
+    }
+
+    /**
+     * Encode bytes into characters
+     * @param src	the bytes to encode
+     * @param off	the offset of the first byte to encode
+     * @param len	the number of bytes to encode
+     * @param dst	the array to receive the encoded characters
+     * @param doff	the offset at which to store the first character
+     * @return	the number of characters stored
+     */
+    public static int encode(byte src[], int off, int len, char dst[],
+            int doff) {
+        int end = off + len, start = doff;
+        int c1, c2;
+
+        checkRange(src.length, off, len);
+        checkRange(dst.length, doff, encodedLength(len));
+        while (off < end) {
+            c1 = src[off++] & 0xff;
+            dst[doff++] = base64_code[(c1 >> 2) & 0x3f];
+            c1 = (c1 & 0x03) << 4;
+            if (off >= end) {
+                dst[doff++] = base64_code[c1];
+                break;
+            }
+            c2 = src[off++] & 0xff;
+            dst[doff++] = base64_code[c1 | (c2 >> 4)];
+            c1 = (c2 & 0x0f) << 2;
+            if (off >= end) {
+                dst[doff++] = base64_code[c1];
+                break;
+            }
+            c2 = src[off++] & 0xff;
+            dst[doff++] = base64_code[c1 | (c2 >> 6)];
+            dst[doff++] = base64_code[c2 & 0x3f];
+        }
+        return doff - start;
+    }
+
+    /**
+     * Encode bytes into US-ASCII characters, stored one per byte
+     * @param src	the bytes to encode
+     * @param off	the offset of the first byte to encode
+     * @param len	the number of bytes to encode
+     * @param dst	the array to receive the encoded characters
+     * @param doff	the offset at which to store the first character
+     * @return	the number of characters stored
+     */
+    public static int encode(byte src[], int off, int len, byte dst[],
+            int doff) {
+        int end = off + len, start = doff;
+        int c1, c2;
+
+        checkRange(src.length, off, len);
+        checkRange(dst.length, doff, encodedLength(len));
+        while (off < end) {
+            c1 = src[off++] & 0xff;
+            dst[doff++] = (byte) base64_code[(c1 >> 2) & 0x3f];
+            c1 = (c1 & 0x03) << 4;
+            if (off >= end) {
+                dst[doff++] = (byte) base64_code[c1];
+                break;
+            }
+            c2 = src[off++] & 0xff;
+            dst[doff++] = (byte) base64_code[c1 | (c2 >> 4)];
+            c1 = (c2 & 0x0f) << 2;
+            if (off >= end) {
+                dst[doff++] = (byte) base64_code[c1];
+                break;
+            }
+            c2 = src[off++] & 0xff;
+            dst[doff++] = (byte) base64_code[c1 | (c2 >> 6)];
+            dst[doff++] = (byte) base64_code[c2 & 0x3f];
+        }
+        return doff - start;
+    }
+
+    /**
+     * Encode the remaining bytes of a buffer into US-ASCII characters,
+     * stored one per byte. Both buffers' positions are advanced.
+     * @param src	the bytes to encode
+     * @param dst	the buffer to receive the encoded characters
+     * @return	the number of characters stored
+     * @exception BufferOverflowException if dst is too small
+     */
+    public static int encode(ByteBuffer src, ByteBuffer dst) {
+        int len = src.remaining(), start = dst.position();
+        int c1, c2;
+
+        if (dst.remaining() < encodedLength(len)) {
+            throw new BufferOverflowException();
+        }
+        while (src.hasRemaining()) {
+            c1 = src.get() & 0xff;
+            dst.put((byte) base64_code[(c1 >> 2) & 0x3f]);
+            c1 = (c1 & 0x03) << 4;
+            if (!src.hasRemaining()) {
+                dst.put((byte) base64_code[c1]);
+                break;
+            }
+            c2 = src.get() & 0xff;
+            dst.put((byte) base64_code[c1 | (c2 >> 4)]);
+            c1 = (c2 & 0x0f) << 2;
+            if (!src.hasRemaining()) {
+                dst.put((byte) base64_code[c1]);
+                break;
+            }
+            c2 = src.get() & 0xff;
+            dst.put((byte) base64_code[c1 | (c2 >> 6)]);
+            dst.put((byte) base64_code[c2 & 0x3f]);
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * Decode characters into bytes
+     * @param src	the characters to decode
+     * @param off	the offset of the first character to decode
+     * @param len	the number of characters to decode
+     * @param dst	the array to receive the decoded bytes
+     * @param doff	the offset at which to store the first byte
+     * @return	the number of bytes stored
+     * @exception IllegalArgumentException if a character is invalid,
+     * in which case the contents of dst are undefined
+     */
+    public static int decode(CharSequence src, int off, int len, byte dst[],
+            int doff) throws IllegalArgumentException {
+        int end = off + len, start = doff;
+        int c1, c2, c3, c4, bad = 0;
+
+        checkRange(src.length(), off, len);
+        checkDecode(dst.length, doff, len);
+        for (; end - off >= 4; off += 4) {
+            c1 = char64(src.charAt(off));
+            c2 = char64(src.charAt(off + 1));
+            c3 = char64(src.charAt(off + 2));
+            c4 = char64(src.charAt(off + 3));
+            bad |= c1 | c2 | c3 | c4;
+            dst[doff++] = (byte) ((c1 << 2) | (c2 >> 4));
+            dst[doff++] = (byte) ((c2 << 4) | (c3 >> 2));
+            dst[doff++] = (byte) ((c3 << 6) | c4);
+        }
+        if (end - off >= 2) {
+            c1 = char64(src.charAt(off));
+            c2 = char64(src.charAt(off + 1));
+            bad |= c1 | c2;
+            dst[doff++] = (byte) ((c1 << 2) | (c2 >> 4));
+            if (end - off == 3) {
+                c3 = char64(src.charAt(off + 2));
+                bad |= c3;
+                dst[doff++] = (byte) ((c2 << 4) | (c3 >> 2));
+            }
+        }
+        checkValid(bad);
+        return doff - start;
+    }
+
+    /**
+     * Decode characters into bytes
+     * @param src	the characters to decode
+     * @param off	the offset of the first character to decode
+     * @param len	the number of characters to decode
+     * @param dst	the array to receive the decoded bytes
+     * @param doff	the offset at which to store the first byte
+     * @return	the number of bytes stored
+     * @exception IllegalArgumentException if a character is invalid,
+     * in which case the contents of dst are undefined
+     */
+    public static int decode(char src[], int off, int len, byte dst[],
+            int doff) throws IllegalArgumentException {
+        int end = off + len, start = doff;
+        int c1, c2, c3, c4, bad = 0;
+
+        checkRange(src.length, off, len);
+        checkDecode(dst.length, doff, len);
+        for (; end - off >= 4; off += 4) {
+            c1 = char64(src[off]);
+            c2 = char64(src[off + 1]);
+            c3 = char64(src[off + 2]);
+            c4 = char64(src[off + 3]);
+            bad |= c1 | c2 | c3 | c4;
+            dst[doff++] = (byte) ((c1 << 2) | (c2 >> 4));
+            dst[doff++] = (byte) ((c2 << 4) | (c3 >> 2));
+            dst[doff++] = (byte) ((c3 << 6) | c4);
+        }
+        if (end - off >= 2) {
+            c1 = char64(src[off]);
+            c2 = char64(src[off + 1]);
+            bad |= c1 | c2;
+            dst[doff++] = (byte) ((c1 << 2) | (c2 >> 4));
+            if (end - off == 3) {
+                c3 = char64(src[off + 2]);
+                bad |= c3;
+                dst[doff++] = (byte) ((c2 << 4) | (c3 >> 2));
+            }
+        }
+        checkValid(bad);
+        return doff - start;
+    }
+
+    /**
+     * Decode US-ASCII characters, stored one per byte, into bytes
+     * @param src	the characters to decode
+     * @param off	the offset of the first character to decode
+     * @param len	the number of characters to decode
+     * @param dst	the array to receive the decoded bytes
+     * @param doff	the offset at which to store the first byte
+     * @return	the number of bytes stored
+     * @exception IllegalArgumentException if a character is invalid,
+     * in which case the contents of dst are undefined
+     */
+    public static int decode(byte src[], int off, int len, byte dst[],
+            int doff) throws IllegalArgumentException {
+        int end = off + len, start = doff;
+        int c1, c2, c3, c4, bad = 0;
+
+        checkRange(src.length, off, len);
+        checkDecode(dst.length, doff, len);
+        for (; end - off >= 4; off += 4) {
+            c1 = char64(src[off] & 0xff);
+            c2 = char64(src[off + 1] & 0xff);
+            c3 = char64(src[off + 2] & 0xff);
+            c4 = char64(src[off + 3] & 0xff);
+            bad |= c1 | c2 | c3 | c4;
+            dst[doff++] = (byte) ((c1 << 2) | (c2 >> 4));
+            dst[doff++] = (byte) ((c2 << 4) | (c3 >> 2));
+            dst[doff++] = (byte) ((c3 << 6) | c4);
+        }
+        if (end - off >= 2) {
+            c1 = char64(src[off] & 0xff);
+            c2 = char64(src[off + 1] & 0xff);
+            bad |= c1 | c2;
+            dst[doff++] = (byte) ((c1 << 2) | (c2 >> 4));
+            if (end - off == 3) {
+                c3 = char64(src[off + 2] & 0xff);
+                bad |= c3;
+                dst[doff++] = (byte) ((c2 << 4) | (c3 >> 2));
+            }
+        }
+        checkValid(bad);
+        return doff - start;
+    }
+
+    /**
+     * Decode the remaining US-ASCII characters of a buffer, stored one
+     * per byte, into bytes. Both buffers' positions are advanced.
+     * @param src	the characters to decode
+     * @param dst	the buffer to receive the decoded bytes
+     * @return	the number of bytes stored
+     * @exception IllegalArgumentException if a character is invalid,
+     * in which case the contents of dst are undefined
+     * @exception BufferOverflowException if dst is too small
+     */
+    public static int decode(ByteBuffer src, ByteBuffer dst)
+            throws IllegalArgumentException {
+        int len = src.remaining(), start = dst.position();
+        int c1, c2, c3, c4, bad = 0;
+
+        if ((len & 3) == 1) {
+            throw new IllegalArgumentException("Invalid base64 length");
+        }
+        if (dst.remaining() < decodedLength(len)) {
+            throw new BufferOverflowException();
+        }
+        for (; len >= 4; len -= 4) {
+            c1 = char64(src.get() & 0xff);
+            c2 = char64(src.get() & 0xff);
+            c3 = char64(src.get() & 0xff);
+            c4 = char64(src.get() & 0xff);
+            bad |= c1 | c2 | c3 | c4;
+            dst.put((byte) ((c1 << 2) | (c2 >> 4)));
+            dst.put((byte) ((c2 << 4) | (c3 >> 2)));
+            dst.put((byte) ((c3 << 6) | c4));
+        }
+        if (len >= 2) {
+            c1 = char64(src.get() & 0xff);
+            c2 = char64(src.get() & 0xff);
+            bad |= c1 | c2;
+            dst.put((byte) ((c1 << 2) | (c2 >> 4)));
+            if (len == 3) {
+                c3 = char64(src.get() & 0xff);
+                bad |= c3;
+                dst.put((byte) ((c2 << 4) | (c3 >> 2)));
+            }
+        }
+        checkValid(bad);
+        return dst.position() - start;
+    }
+
+    private static void checkRange(int length, int off, int len) {
+        if (off < 0 || len < 0 || off > length - len) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    private static void checkDecode(int length, int doff, int len) {
+        if ((len & 3) == 1) {
+            throw new IllegalArgumentException("Invalid base64 length");
+        }
+        checkRange(length, doff, decodedLength(len));
+    }
+
+    private static void checkValid(int bad) {
+        if (bad < 0) {
+            throw new IllegalArgumentException("Invalid base64 character");
+        }
+    }
+}
@@ -0,0 +1,445 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+/**
+ * BCryptBatch hashes or checks many passwords at once, spreading the
+ * work across cores. Each task takes up to four passwords and, when
+ * they share a cost, runs their key schedules in lockstep on one
+ * thread (see BCryptLanes), which gets more hashes out of each core
+ * than hashing them one by one.
+ * <p>
+ * Check results are returned as a bitmap in input order: bit i is set
+ * iff password i matches hash i. A malformed hash simply does not
+ * match. Hashes are returned as an array in input order.
+ * <p>
+ * <code>
+ * BitSet ok = BCryptBatch.checkpw(passwords, hashes);<br />
+ * String hashed[] = BCryptBatch.hashpw(passwords, salts);<br />
+ * </code>
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public final class BCryptBatch {
+    private BCryptBatch() {
+    }
+
+    /**
+     * Check plaintext passwords against previously hashed ones, in
+     * parallel on the common fork/join pool
+     * @param plaintexts	the plaintext passwords to verify
+     * @param hashes	the previously-hashed passwords
+     * @return	a bitmap of the pairs that match, in input order
+     * @exception IllegalArgumentException if the arrays differ in length
+     */
+    public static BitSet checkpw(String plaintexts[], String hashes[])
+            throws IllegalArgumentException {
+        return checkpw(plaintexts, hashes, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Check plaintext passwords against previously hashed ones, in
+     * parallel on the given fork/join pool
+     * @param plaintexts	the plaintext passwords to verify
+     * @param hashes	the previously-hashed passwords
+     * @param pool	the pool to verify on
+     * @return	a bitmap of the pairs that match, in input order
+     * @exception IllegalArgumentException if the arrays differ in length
+     */
+    public static BitSet checkpw(final String plaintexts[], final String hashes[],
+            ForkJoinPool pool) throws IllegalArgumentException {
+        checkLengths(plaintexts.length, hashes.length);
+        return check(i -> BCrypt.stringToBytes(plaintexts[i]), hashes, pool);
+    }
+
+    /**
+     * Check plaintext passwords against previously hashed ones, in
+     * parallel on the given executor. The calling thread waits for all
+     * of the checks to finish.
+     * @param plaintexts	the plaintext passwords to verify
+     * @param hashes	the previously-hashed passwords
+     * @param executor	the executor to verify on
+     * @return	a bitmap of the pairs that match, in input order
+     * @exception IllegalArgumentException if the arrays differ in length
+     * @exception InterruptedException if interrupted while waiting
+     */
+    public static BitSet checkpw(final String plaintexts[], final String hashes[],
+            Executor executor)
+            throws IllegalArgumentException, InterruptedException {
+        checkLengths(plaintexts.length, hashes.length);
+        return check(i -> BCrypt.stringToBytes(plaintexts[i]), hashes,
+                executor);
+    }
+
+    /**
+     * Check plaintext byte[] passwords against previously hashed ones,
+     * in parallel on the common fork/join pool
+     * @param plaintexts	the plaintext passwords to verify
+     * @param hashes	the previously-hashed passwords
+     * @return	a bitmap of the pairs that match, in input order
+     * @exception IllegalArgumentException if the arrays differ in length
+     */
+    public static BitSet checkpw(byte plaintexts[][], String hashes[])
+            throws IllegalArgumentException {
+        return checkpw(plaintexts, hashes, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Check plaintext byte[] passwords against previously hashed ones,
+     * in parallel on the given fork/join pool
+     * @param plaintexts	the plaintext passwords to verify
+     * @param hashes	the previously-hashed passwords
+     * @param pool	the pool to verify on
+     * @return	a bitmap of the pairs that match, in input order
+     * @exception IllegalArgumentException if the arrays differ in length
+     */
+    public static BitSet checkpw(final byte plaintexts[][], final String hashes[],
+            ForkJoinPool pool) throws IllegalArgumentException {
+        checkLengths(plaintexts.length, hashes.length);
+        return check(i -> plaintexts[i], hashes, pool);
+    }
+
+    /**
+     * Check plaintext byte[] passwords against previously hashed ones,
+     * in parallel on the given executor. The calling thread waits for
+     * all of the checks to finish.
+     * @param plaintexts	the plaintext passwords to verify
+     * @param hashes	the previously-hashed passwords
+     * @param executor	the executor to verify on
+     * @return	a bitmap of the pairs that match, in input order
+     * @exception IllegalArgumentException if the arrays differ in length
+     * @exception InterruptedException if interrupted while waiting
+     */
+    public static BitSet checkpw(final byte plaintexts[][], final String hashes[],
+            Executor executor)
+            throws IllegalArgumentException, InterruptedException {
+        checkLengths(plaintexts.length, hashes.length);
+        return check(i -> plaintexts[i], hashes, executor);
+    }
+
+    /**
+     * Hash passwords, in parallel on the common fork/join pool
+     * @param passwords	the passwords to hash
+     * @param salts	the salts to hash with (perhaps generated using
+     * BCrypt.gensalt), one per password
+     * @return	the hashed passwords, in input order
+     * @exception IllegalArgumentException if the arrays differ in length
+     * or a salt is malformed
+     */
+    public static String[] hashpw(String passwords[], String salts[])
+            throws IllegalArgumentException {
+        return hashpw(passwords, salts, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Hash passwords, in parallel on the given fork/join pool
+     * @param passwords	the passwords to hash
+     * @param salts	the salts to hash with (perhaps generated using
+     * BCrypt.gensalt), one per password
+     * @param pool	the pool to hash on
+     * @return	the hashed passwords, in input order
+     * @exception IllegalArgumentException if the arrays differ in length
+     * or a salt is malformed
+     */
+    public static String[] hashpw(final String passwords[], String salts[],
+            ForkJoinPool pool) throws IllegalArgumentException {
+        checkLengths(passwords.length, salts.length);
+        return hash(i -> BCrypt.stringToBytes(passwords[i]), salts, pool);
+    }
+
+    /**
+     * Hash passwords, in parallel on the given executor. The calling
+     * thread waits for all of the hashes to finish.
+     * @param passwords	the passwords to hash
+     * @param salts	the salts to hash with (perhaps generated using
+     * BCrypt.gensalt), one per password
+     * @param executor	the executor to hash on
+     * @return	the hashed passwords, in input order
+     * @exception IllegalArgumentException if the arrays differ in length
+     * or a salt is malformed
+     * @exception InterruptedException if interrupted while waiting
+     */
+    public static String[] hashpw(final String passwords[], String salts[],
+            Executor executor)
+            throws IllegalArgumentException, InterruptedException {
+        checkLengths(passwords.length, salts.length);
+        return hash(i -> BCrypt.stringToBytes(passwords[i]), salts, executor);
+    }
+
+    /**
+     * Hash byte[] passwords, in parallel on the common fork/join pool
+     * @param passwords	the passwords to hash
+     * @param salts	the salts to hash with (perhaps generated using
+     * BCrypt.gensalt), one per password
+     * @return	the hashed passwords, in input order
+     * @exception IllegalArgumentException if the arrays differ in length
+     * or a salt is malformed
+     */
+    public static String[] hashpw(byte passwords[][], String salts[])
+            throws IllegalArgumentException {
+        return hashpw(passwords, salts, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Hash byte[] passwords, in parallel on the given fork/join pool
+     * @param passwords	the passwords to hash
+     * @param salts	the salts to hash with (perhaps generated using
+     * BCrypt.gensalt), one per password
+     * @param pool	the pool to hash on
+     * @return	the hashed passwords, in input order
+     * @exception IllegalArgumentException if the arrays differ in length
+     * or a salt is malformed
+     */
+    public static String[] hashpw(final byte passwords[][], String salts[],
+            ForkJoinPool pool) throws IllegalArgumentException {
+        checkLengths(passwords.length, salts.length);
+        return hash(i -> passwords[i], salts, pool);
+    }
+
+    /**
+     * Hash byte[] passwords, in parallel on the given executor. The
+     * calling thread waits for all of the hashes to finish.
+     * @param passwords	the passwords to hash
+     * @param salts	the salts to hash with (perhaps generated using
+     * BCrypt.gensalt), one per password
+     * @param executor	the executor to hash on
+     * @return	the hashed passwords, in input order
+     * @exception IllegalArgumentException if the arrays differ in length
+     * or a salt is malformed
+     * @exception InterruptedException if interrupted while waiting
+     */
+    public static String[] hashpw(final byte passwords[][], String salts[],
+            Executor executor)
+            throws IllegalArgumentException, InterruptedException {
+        checkLengths(passwords.length, salts.length);
+        return hash(i -> passwords[i], salts, executor);
+    }
+
+    private static void checkLengths(int plen, int hlen) {
+        if (plen != hlen) {
+            throw new IllegalArgumentException("Mismatched batch lengths");
+        }
+    }
+
+    private static BitSet check(IntFunction<byte[]> plaintexts,
+            String hashes[], ForkJoinPool pool) {
+        boolean results[] = new boolean[hashes.length];
+        run((from, to) -> checkGroup(plaintexts, hashes, from, to, results),
+                hashes.length, pool);
+        return toBitSet(results);
+    }
+
+    private static BitSet check(IntFunction<byte[]> plaintexts,
+            String hashes[], Executor executor) throws InterruptedException {
+        boolean results[] = new boolean[hashes.length];
+        run((from, to) -> checkGroup(plaintexts, hashes, from, to, results),
+                hashes.length, executor);
+        return toBitSet(results);
+    }
+
+    private static String[] hash(IntFunction<byte[]> passwords,
+            String salts[], ForkJoinPool pool) {
+        String hashed[] = new String[salts.length];
+        run((from, to) -> hashGroup(passwords, salts, from, to, hashed),
+                salts.length, pool);
+        return hashed;
+    }
+
+    private static String[] hash(IntFunction<byte[]> passwords,
+            String salts[], Executor executor) throws InterruptedException {
+        String hashed[] = new String[salts.length];
+        run((from, to) -> hashGroup(passwords, salts, from, to, hashed),
+                salts.length, executor);
+        return hashed;
+    }
+
+    /**
+     * Check one group of up to BCryptLanes.LANES pairs; pairs with a
+     * malformed hash, or that bcrypt cannot hash at all, are left
+     * unmatched
+     */
+    private static void checkGroup(IntFunction<byte[]> plaintexts,
+            String hashes[], int from, int to, boolean results[]) {
+        byte group_pw[][] = new byte[to - from][];
+        BCryptHash group[] = new BCryptHash[to - from];
+        int index[] = new int[to - from];
+        int n = 0;
+
+        for (int i = from; i < to; i++) {
+            try {
+                group[n] = BCryptHash.parse(hashes[i]);
+            } catch (IllegalArgumentException iae) {
+                BCryptMetrics m = BCrypt.getMetrics();
+                if (m != null) {
+                    m.malformed();
+                }
+                continue;
+            }
+            group_pw[n] = plaintexts.apply(i);
+            index[n++] = i;
+        }
+
+        boolean ok[] = new boolean[n];
+        BCryptLanes.current().verifyEach(Arrays.copyOf(group_pw, n),
+                Arrays.copyOf(group, n), ok, new boolean[n]);
+        for (int k = 0; k < n; k++) {
+            results[index[k]] = ok[k];
+        }
+    }
+
+    /**
+     * Hash one group of up to BCryptLanes.LANES passwords
+     */
+    private static void hashGroup(IntFunction<byte[]> passwords,
+            String salts[], int from, int to, String hashed[]) {
+        byte group_pw[][] = new byte[to - from][];
+        String group_salts[] = Arrays.copyOfRange(salts, from, to);
+        String group_hashed[] = new String[to - from];
+
+        for (int i = from; i < to; i++) {
+            group_pw[i - from] = passwords.apply(i);
+        }
+        BCryptLanes.current().hash(group_pw, group_salts, group_hashed);
+        System.arraycopy(group_hashed, 0, hashed, from, to - from);
+    }
+
+    /**
+     * Work on a group of consecutive indices
+     */
+    private interface Group {
+        /**
+         * @param from	the first index of the group
+         * @param to	the index after the last, at most
+         * BCryptLanes.LANES after from
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * Run a task for every group of indices on a fork/join pool
+     * @param group	the task to run
+     * @param n	the number of indices
+     * @param pool	the pool to run on
+     */
+    private static void run(Group group, int n, ForkJoinPool pool) {
+        if (n > 0) {
+            pool.invoke(new GroupRange(group, 0, n));
+        }
+    }
+
+    /**
+     * Run a task for every group of indices on an executor, with one
+     * task per processor pulling groups from a shared counter
+     * @param group	the task to run
+     * @param n	the number of indices
+     * @param executor	the executor to run on
+     */
+    private static void run(final Group group, final int n,
+            Executor executor) throws InterruptedException {
+        final int lanes = BCryptLanes.LANES;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        int tasks = Math.min((n + lanes - 1) / lanes,
+                Runtime.getRuntime().availableProcessors());
+        final CountDownLatch done = new CountDownLatch(tasks);
+
+        for (int t = 0; t < tasks; t++) {
+            Runnable task = () -> {
+                try {
+                    int i;
+                    while ((i = next.getAndAdd(lanes)) < n) {
+                        group.run(i, Math.min(i + lanes, n));
+                    }
+                } catch (Throwable th) {
+                    failure.compareAndSet(null, th);
+                    next.set(n);
+                } finally {
+                    done.countDown();
+                }
+            };
+            try {
+                executor.execute(task);
+            } catch (RuntimeException re) {
+                // Let the tasks already running finish before failing
+                next.set(n);
+                for (; t < tasks; t++) {
+                    done.countDown();
+                }
+                done.await();
+                throw re;
+            }
+        }
+        done.await();
+
+        Throwable th = failure.get();
+        if (th instanceof RuntimeException) {
+            throw (RuntimeException) th;
+        } else if (th instanceof Error) {
+            throw (Error) th;
+        } else if (th != null) {
+            throw new IllegalStateException(th);
+        }
+    }
+
+    private static BitSet toBitSet(boolean results[]) {
+        BitSet bits = new BitSet(results.length);
+        for (int i = 0; i < results.length; i++) {
+            if (results[i]) {
+                bits.set(i);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Splits a range of indices in two, on a group boundary, until a
+     * single group remains; each group is expensive enough to be worth
+     * its own task
+     */
+    private static final class GroupRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Group group;
+        private final int from, to;
+
+        GroupRange(Group group, int from, int to) {
+            this.group = group;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int lanes = BCryptLanes.LANES;
+            int groups = (to - from + lanes - 1) / lanes;
+            if (groups == 1) {
+                group.run(from, to);
+                return;
+            }
+            int mid = from + groups / 2 * lanes;
+            invokeAll(new GroupRange(group, from, mid),
+                    new GroupRange(group, mid, to));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BCryptCalibration picks the largest cost factor (log_rounds) whose
+ * hashing time on this machine fits a target latency, so that the work
+ * factor tracks the hardware instead of a hard-coded default:
+ * <p>
+ * <code>
+ * String salt = BCrypt.gensalt(250, TimeUnit.MILLISECONDS);<br />
+ * </code>
+ * <p>
+ * Calibration times a batch of hashes at a cost that is cheap but
+ * still long enough to time accurately, takes the requested percentile
+ * of those timings and extrapolates, since each increment of the cost
+ * doubles the work. Results are cached, so each target is calibrated
+ * only once per process.
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public final class BCryptCalibration {
+    /** The default target latency, in milliseconds */
+    public static final long DEFAULT_TARGET_MILLIS = 250;
+    /** The default percentile of hashing time that must fit the target */
+    public static final double DEFAULT_PERCENTILE = 0.95;
+
+    private static final int MIN_LOG_ROUNDS = 4;
+    private static final int MAX_LOG_ROUNDS = 30;
+    // Shortest hash that is timed, to keep timer error negligible
+    private static final long MIN_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final int WARMUP_HASHES = 32;
+    private static final int SAMPLES = 40;
+
+    private static final byte password[] = {
+        'c', 'a', 'l', 'i', 'b', 'r', 'a', 't', 'e', 0
+    };
+    private static final byte salt[] = {
+        0x10, 0x41, 0x04, 0x10, 0x41, 0x04, 0x10, 0x41,
+        0x04, 0x10, 0x41, 0x04, 0x10, 0x41, 0x04, 0x10
+    };
+
+    private static final ConcurrentHashMap<String, Integer> cache =
+        new ConcurrentHashMap<String, Integer>();
+
+    private BCryptCalibration() {
+    }
+
+    /**
+     * Get the cost factor calibrated for the default target, 250ms
+     * at the 95th percentile
+     * @return	the calibrated log_rounds
+     */
+    public static int calibrate() {
+        return calibrate(DEFAULT_TARGET_MILLIS, TimeUnit.MILLISECONDS,
+                DEFAULT_PERCENTILE);
+    }
+
+    /**
+     * Get the largest cost factor whose 95th percentile hashing time
+     * fits a target latency, calibrating on first use
+     * @param target	the target latency
+     * @param unit	the unit of target
+     * @return	the calibrated log_rounds, at least 4
+     */
+    public static int calibrate(long target, TimeUnit unit) {
+        return calibrate(target, unit, DEFAULT_PERCENTILE);
+    }
+
+    /**
+     * Get the largest cost factor whose hashing time at the given
+     * percentile fits a target latency, calibrating on first use
+     * @param target	the target latency
+     * @param unit	the unit of target
+     * @param percentile	the percentile of hashing time, between 0
+     * and 1, that must fit the target
+     * @return	the calibrated log_rounds, at least 4
+     * @exception IllegalArgumentException if target or percentile
+     * is invalid
+     */
+    public static int calibrate(long target, TimeUnit unit,
+            double percentile) throws IllegalArgumentException {
+        final long target_nanos = unit.toNanos(target);
+        Integer log_rounds;
+
+        if (target_nanos <= 0) {
+            throw new IllegalArgumentException("Invalid target");
+        }
+        if (!(percentile > 0 && percentile <= 1)) {
+            throw new IllegalArgumentException("Invalid percentile");
+        }
+        String key = target_nanos + "@" + percentile;
+        log_rounds = cache.get(key);
+        if (log_rounds == null) {
+            // Calibrations are run one at a time so that they do not
+            // compete with each other for the CPU
+            synchronized (cache) {
+                log_rounds = cache.get(key);
+                if (log_rounds == null) {
+                    log_rounds = measure(target_nanos, percentile);
+                    cache.put(key, log_rounds);
+                }
+            }
+        }
+        return log_rounds;
+    }
+
+    /**
+     * Time hashes on this machine and extrapolate the cost factor
+     * @param target_nanos	the target latency in nanoseconds
+     * @param percentile	the percentile that must fit the target
+     * @return	the largest fitting log_rounds, at least 4
+     */
+    private static int measure(long target_nanos, double percentile) {
+        BCrypt engine = new BCrypt();
+        long samples[] = new long[SAMPLES];
+        int base, log_rounds;
+        long sample;
+        double nanos;
+
+        for (int i = 0; i < WARMUP_HASHES; i++) {
+            time(engine, MIN_LOG_ROUNDS);
+        }
+        for (base = MIN_LOG_ROUNDS; ; base++) {
+            sample = time(engine, base);
+            if (base == MAX_LOG_ROUNDS || sample >= MIN_SAMPLE_NANOS ||
+                    sample >= target_nanos) {
+                break;
+            }
+        }
+
+        // The probe that chose the base counts as the first sample
+        samples[0] = sample;
+        for (int i = 1; i < SAMPLES; i++) {
+            samples[i] = time(engine, base);
+        }
+        Arrays.sort(samples);
+        nanos = samples[Math.max(0, (int) Math.ceil(percentile * SAMPLES) - 1)];
+
+        // Each extra round doubles the work
+        log_rounds = base;
+        while (log_rounds < MAX_LOG_ROUNDS &&
+                Math.scalb(nanos, log_rounds + 1 - base) <= target_nanos) {
+            log_rounds++;
+        }
+        while (log_rounds > MIN_LOG_ROUNDS &&
+                Math.scalb(nanos, log_rounds - base) > target_nanos) {
+            log_rounds--;
+        }
+        return log_rounds;
+    }
+
+    private static long time(BCrypt engine, int log_rounds) {
+        long start = System.nanoTime();
+        engine.crypt_raw(password, salt, log_rounds, false, 0x10000);
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,78 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+/**
+ * BCryptEvents reports hashes, verifications and salt generation to
+ * Java Flight Recorder. This is the Java 8 version, which does nothing;
+ * the multi-release jar carries a Java 11 version that emits JFR events.
+ * Each operation calls a begin method before the work and passes what
+ * it returned to the matching end method afterwards.
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+final class BCryptEvents {
+    private BCryptEvents() {
+    }
+
+    /**
+     * @return	an event to pass to endHash, or null
+     */
+    static Object beginHash() {
+        return null;
+    }
+
+    /**
+     * @param event	the value returned by beginHash
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @param outcome	"hashed" or "timeout"
+     */
+    static void endHash(Object event, char minor, int log_rounds,
+            String outcome) {
+    }
+
+    /**
+     * @return	an event to pass to endVerify, or null
+     */
+    static Object beginVerify() {
+        return null;
+    }
+
+    /**
+     * @param event	the value returned by beginVerify
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @param outcome	"match", "mismatch", "malformed" or "timeout"
+     */
+    static void endVerify(Object event, char minor, int log_rounds,
+            String outcome) {
+    }
+
+    /**
+     * @return	an event to pass to endGensalt, or null
+     */
+    static Object beginGensalt() {
+        return null;
+    }
+
+    /**
+     * @param event	the value returned by beginGensalt
+     * @param minor	the minor version
+     * @param log_rounds	the binary logarithm of the number of rounds
+     */
+    static void endGensalt(Object event, char minor, int log_rounds) {
+    }
+}
@@ -0,0 +1,122 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for running bcrypt work off the caller's thread, as used
+ * by BCrypt.hashpwAsync and BCrypt.checkpwAsync.
+ * <p>
+ * Hashing is pure CPU work, so the default executor has one daemon
+ * thread per available processor and a bounded queue. When the queue
+ * is full further work is rejected instead of piling up. The sizes may
+ * be set with the system properties "org.mindrot.jbcrypt.threads" and
+ * "org.mindrot.jbcrypt.queue", or the default executor may be replaced
+ * altogether with setDefaultExecutor.
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public final class BCryptExecutors {
+    private static final int DEFAULT_QUEUE_PER_THREAD = 256;
+
+    private static volatile Executor default_executor;
+
+    private BCryptExecutors() {
+    }
+
+    /**
+     * Create a bounded executor for bcrypt work
+     * @param threads	the number of worker threads
+     * @param queue_size	the maximum number of queued tasks
+     * @return	a new executor service, using daemon threads
+     * @exception IllegalArgumentException if threads or queue_size
+     * is not positive
+     */
+    public static ExecutorService newExecutor(int threads, int queue_size)
+            throws IllegalArgumentException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Invalid threads");
+        }
+        if (queue_size <= 0) {
+            throw new IllegalArgumentException("Invalid queue_size");
+        }
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queue_size),
+                new WorkerFactory(), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Get the executor used by the asynchronous BCrypt methods when
+     * no executor is supplied, creating it on first use
+     * @return	the default executor
+     */
+    public static Executor defaultExecutor() {
+        Executor executor = default_executor;
+        if (executor == null) {
+            synchronized (BCryptExecutors.class) {
+                executor = default_executor;
+                if (executor == null) {
+                    int threads = Integer.getInteger("org.mindrot.jbcrypt.threads",
+                            Runtime.getRuntime().availableProcessors());
+                    int queue_size = Integer.getInteger("org.mindrot.jbcrypt.queue",
+                            threads * DEFAULT_QUEUE_PER_THREAD);
+                    executor = newExecutor(threads, queue_size);
+                    default_executor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Replace the executor used by the asynchronous BCrypt methods when
+     * no executor is supplied. A previous default executor is not shut
+     * down.
+     * @param executor	the new default executor
+     */
+    public static void setDefaultExecutor(Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        synchronized (BCryptExecutors.class) {
+            default_executor = executor;
+        }
+    }
+
+    /**
+     * Creates named daemon threads, so that an idle pool does not keep
+     * the JVM alive
+     */
+    private static final class WorkerFactory implements ThreadFactory {
+        private static final AtomicInteger pool_seq = new AtomicInteger();
+        private final AtomicInteger thread_seq = new AtomicInteger();
+        private final String name_prefix =
+            "jbcrypt-" + pool_seq.incrementAndGet() + "-";
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, name_prefix + thread_seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
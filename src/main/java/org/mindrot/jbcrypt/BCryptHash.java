@@ -0,0 +1,312 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.util.Arrays;
+
+/**
+ * BCryptHash is an immutable, parsed bcrypt hash: the version, the
+ * binary logarithm of the number of rounds, the 16-byte salt and the
+ * 23-byte digest. A hash can be parsed once, kept alongside the user
+ * record and verified repeatedly with BCrypt.checkpw without parsing
+ * or formatting any strings:
+ * <p>
+ * <code>
+ * BCryptHash stored = BCryptHash.parse(stored_hash);<br />
+ * if (BCrypt.checkpw(candidate_password, stored))<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;System.out.println("It matches");<br />
+ * </code>
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public final class BCryptHash {
+    static final int SALT_LEN = 16;
+    static final int DIGEST_LEN = 23;
+    // Encoded lengths of the salt and the digest
+    static final int ENCODED_SALT_LEN = 22;
+    static final int ENCODED_DIGEST_LEN = 31;
+    // Maximum lengths of a salt string and of a hash string
+    static final int SALT_STRING_LEN = 7 + ENCODED_SALT_LEN;
+    static final int HASH_LEN = SALT_STRING_LEN + ENCODED_DIGEST_LEN;
+
+    // The minor version, or 0 for "$2$"
+    final char minor;
+    final int log_rounds;
+    final byte salt[];
+    final byte digest[];
+
+    private BCryptHash(char minor, int log_rounds, byte salt[], byte digest[]) {
+        this.minor = minor;
+        this.log_rounds = log_rounds;
+        this.salt = salt;
+        this.digest = digest;
+    }
+
+    /**
+     * Parse a hash in the format produced by BCrypt.hashpw
+     * @param hashed	the hashed password
+     * @return	the parsed hash
+     * @exception IllegalArgumentException if the hash is malformed
+     */
+    public static BCryptHash parse(String hashed)
+            throws IllegalArgumentException {
+        char minor = parseMinor(hashed);
+        int off = minor == 0 ? 3 : 4;
+        int log_rounds;
+
+        if (hashed.length() != off + 3 + ENCODED_SALT_LEN + ENCODED_DIGEST_LEN) {
+            throw new IllegalArgumentException("Invalid hash length");
+        }
+
+        log_rounds = parseRounds(hashed, off);
+        off += 3;
+
+        return new BCryptHash(minor, log_rounds,
+                decode(hashed, off, ENCODED_SALT_LEN, SALT_LEN),
+                decode(hashed, off + ENCODED_SALT_LEN, ENCODED_DIGEST_LEN,
+                        DIGEST_LEN));
+    }
+
+    /**
+     * Parse the version, rounds and salt at the start of a salt string,
+     * as BCrypt.hashpw does; anything after the salt is ignored
+     * @param salt	the salt string
+     * @return	a hash holding the parsed fields and an all-zero digest
+     * @exception IllegalArgumentException if the salt is malformed
+     */
+    static BCryptHash parseSalt(String salt) throws IllegalArgumentException {
+        char minor = parseMinor(salt);
+        int off = minor == 0 ? 3 : 4;
+        byte saltb[] = new byte[SALT_LEN];
+        int log_rounds;
+
+        if (salt.length() < off + 3 + ENCODED_SALT_LEN) {
+            throw new IllegalArgumentException("Invalid salt length");
+        }
+        log_rounds = parseRounds(salt, off);
+        BCryptBase64.decode(salt, off + 3, ENCODED_SALT_LEN, saltb, 0);
+        return new BCryptHash(minor, log_rounds, saltb, new byte[DIGEST_LEN]);
+    }
+
+    /**
+     * Parse a stored hash to check a password against, as
+     * BCrypt.checkpw does. A hash whose version, cost and salt are valid
+     * but which is otherwise malformed, for example truncated or not in
+     * canonical form, can match no password.
+     * @param hashed	the hashed password
+     * @return	the parsed hash, or null if it can match no password
+     * @exception IllegalArgumentException if the version, cost or salt
+     * is malformed
+     */
+    static BCryptHash parseStored(String hashed)
+            throws IllegalArgumentException {
+        try {
+            return parse(hashed);
+        } catch (IllegalArgumentException iae) {
+            // Throws if hashpw would have rejected the salt
+            parseSalt(hashed);
+            return null;
+        }
+    }
+
+    /**
+     * Parse the "$2" or "$2x$" version prefix of a hash or salt
+     * @param s	the hash or salt string
+     * @return	the minor version, or 0 for "$2$"
+     * @exception IllegalArgumentException if the version is invalid
+     */
+    static char parseMinor(String s) throws IllegalArgumentException {
+        char minor;
+
+        if (s.length() < 4 || s.charAt(0) != '$' || s.charAt(1) != '2') {
+            throw new IllegalArgumentException("Invalid hash version");
+        }
+        if (s.charAt(2) == '$') {
+            return (char) 0;
+        }
+        minor = s.charAt(2);
+        if ((minor != 'a' && minor != 'x' && minor != 'y' && minor != 'b')
+                || s.charAt(3) != '$') {
+            throw new IllegalArgumentException("Invalid hash revision");
+        }
+        return minor;
+    }
+
+    /**
+     * Parse the two-digit number of rounds and the '$' that follows it
+     * @param s	the hash or salt string
+     * @param off	the offset of the rounds in s
+     * @return	the binary logarithm of the number of rounds
+     * @exception IllegalArgumentException if the rounds are invalid
+     */
+    static int parseRounds(String s, int off) throws IllegalArgumentException {
+        char d1 = s.charAt(off), d2 = s.charAt(off + 1);
+        int log_rounds;
+
+        if (d1 < '0' || d1 > '9' || d2 < '0' || d2 > '9' ||
+                s.charAt(off + 2) != '$') {
+            throw new IllegalArgumentException("Invalid hash rounds");
+        }
+        log_rounds = (d1 - '0') * 10 + (d2 - '0');
+        if (log_rounds < 4 || log_rounds > 30) {
+            throw new IllegalArgumentException("Bad number of rounds");
+        }
+        return log_rounds;
+    }
+
+    /**
+     * Decode a base64 field, rejecting invalid characters and
+     * non-canonical encodings
+     * @param s	the string containing the field
+     * @param off	the offset of the field in s
+     * @param len	the encoded length of the field
+     * @param olen	the decoded length of the field
+     * @return	the decoded bytes
+     * @exception IllegalArgumentException if the field is malformed
+     */
+    private static byte[] decode(String s, int off, int len, int olen)
+            throws IllegalArgumentException {
+        byte ret[] = new byte[olen];
+
+        BCryptBase64.decode(s, off, len, ret, 0);
+        // The unused low bits of the final character must be zero
+        if ((BCryptBase64.char64(s.charAt(off + len - 1)) &
+                ((1 << (len * 6 - olen * 8)) - 1)) != 0) {
+            throw new IllegalArgumentException("Non-canonical base64 encoding");
+        }
+        return ret;
+    }
+
+    /**
+     * Format the version and the number of rounds of a salt or hash
+     * string, that is everything before the encoded salt
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @param dst	the array to receive the characters
+     * @return	the number of characters stored
+     */
+    static int formatHeader(char minor, int log_rounds, char dst[]) {
+        int off = 0;
+
+        if (log_rounds > 30) {
+            throw new IllegalArgumentException(
+                    "rounds exceeds maximum (30)");
+        }
+        dst[off++] = '$';
+        dst[off++] = '2';
+        if (minor >= 'a') {
+            dst[off++] = minor;
+        }
+        dst[off++] = '$';
+        dst[off++] = (char) ('0' + log_rounds / 10);
+        dst[off++] = (char) ('0' + log_rounds % 10);
+        dst[off++] = '$';
+        return off;
+    }
+
+    /**
+     * Format a salt string, that is the version, the number of rounds
+     * and the encoded salt
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @param salt	the binary salt
+     * @param dst	the array to receive the salt string, at least
+     * SALT_STRING_LEN long
+     * @return	the number of characters stored
+     */
+    static int formatSalt(char minor, int log_rounds, byte salt[],
+            char dst[]) {
+        int off = formatHeader(minor, log_rounds, dst);
+        return off + BCryptBase64.encode(salt, 0, SALT_LEN, dst, off);
+    }
+
+    /**
+     * Format a hash string
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @param salt	the binary salt
+     * @param digest	the binary digest; only the first 23 bytes are used
+     * @param dst	the array to receive the hash string, at least
+     * HASH_LEN long
+     * @return	the number of characters stored
+     */
+    static int format(char minor, int log_rounds, byte salt[],
+            byte digest[], char dst[]) {
+        int off = formatSalt(minor, log_rounds, salt, dst);
+        return off + BCryptBase64.encode(digest, 0, DIGEST_LEN, dst, off);
+    }
+
+    /**
+     * @return	the version prefix, for example "$2a" or "$2"
+     */
+    public String getVersion() {
+        return minor == 0 ? "$2" : "$2" + minor;
+    }
+
+    /**
+     * @return	the minor version character, or 0 for "$2$" hashes
+     */
+    public char getMinor() {
+        return minor;
+    }
+
+    /**
+     * @return	the binary logarithm of the number of rounds
+     */
+    public int getLogRounds() {
+        return log_rounds;
+    }
+
+    /**
+     * @return	a copy of the 16-byte salt
+     */
+    public byte[] getSalt() {
+        return salt.clone();
+    }
+
+    /**
+     * @return	a copy of the 23-byte digest
+     */
+    public byte[] getDigest() {
+        return digest.clone();
+    }
+
+    /**
+     * @return	the hash in the format produced by BCrypt.hashpw
+     */
+    @Override
+    public String toString() {
+        char rs[] = new char[HASH_LEN];
+        return new String(rs, 0, format(minor, log_rounds, salt, digest, rs));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BCryptHash)) {
+            return false;
+        }
+        BCryptHash h = (BCryptHash) o;
+        return minor == h.minor && log_rounds == h.log_rounds &&
+            Arrays.equals(salt, h.salt) && Arrays.equals(digest, h.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(digest) + Arrays.hashCode(salt);
+    }
+}
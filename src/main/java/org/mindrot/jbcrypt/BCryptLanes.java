@@ -0,0 +1,301 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+/**
+ * BCryptLanes hashes a group of passwords at once on one thread.
+ * Blowfish encryption is a serial chain of dependent S-box lookups, so
+ * a single bcrypt hash leaves most of a core idle waiting on loads. The
+ * expensive loop here runs the key schedules of four independent hashes
+ * of the same cost in lockstep, interleaving their Feistel rounds so
+ * that the processor overlaps the lookups of one lane with those of
+ * the others. Each lane is an ordinary BCrypt engine; only the
+ * expensive loop is interleaved, and the result is identical to hashing
+ * each password on its own.
+ * <p>
+ * Where the Vector API is available (see BCryptVector), the lockstep
+ * loop runs on it instead, and a group is as wide as a vector, typically
+ * 8 or 16 lanes.
+ * <p>
+ * Groups smaller than LANES are padded by repeating the first lane,
+ * and groups whose costs differ are hashed one at a time. Every hash
+ * in a group finishes when the group does, so the metrics are given
+ * the time taken by the whole group as the latency of each hash.
+ * Instances are not thread-safe; BCryptBatch uses one per thread.
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+final class BCryptLanes {
+    // Lanes in a group: the vector width if the Vector API is usable
+    static final int LANES = Math.max(4, BCryptVector.lanes());
+    // BCryptVector.run is only called when this is set
+    private static final boolean VECTOR = BCryptVector.lanes() != 0;
+
+    private static final ThreadLocal<BCryptLanes> lanes =
+        new ThreadLocal<BCryptLanes>() {
+            @Override
+            protected BCryptLanes initialValue() {
+                return new BCryptLanes();
+            }
+        };
+
+    private final BCrypt engines[] = new BCrypt[LANES];
+    // Key schedules of the first four lanes, for the scalar lockstep loop
+    private final int T0[], T1[], T2[], T3[];
+    private final int pw_words[][] = new int[LANES][];
+    private final char hash_chars[] = new char[BCryptHash.HASH_LEN];
+
+    BCryptLanes() {
+        for (int k = 0; k < LANES; k++) {
+            engines[k] = new BCrypt();
+        }
+        T0 = engines[0].state;
+        T1 = engines[1].state;
+        T2 = engines[2].state;
+        T3 = engines[3].state;
+    }
+
+    /**
+     * @return	the lanes for the current thread
+     */
+    static BCryptLanes current() {
+        return lanes.get();
+    }
+
+    /**
+     * Hash a group of passwords
+     * @param passwords	the passwords to hash, at most LANES of them
+     * @param salts	the salts to hash with, in the format accepted by
+     * BCrypt.hashpw
+     * @param hashes	the array to store the hashed passwords in
+     * @exception IllegalArgumentException if a salt is malformed
+     */
+    void hash(byte passwords[][], String salts[], String hashes[])
+            throws IllegalArgumentException {
+        int n = passwords.length;
+        BCryptHash parsed[] = new BCryptHash[n];
+        byte digests[][] = new byte[n][];
+        Object events[] = new Object[n];
+        BCryptMetrics m = BCrypt.getMetrics();
+        long start = m == null ? 0 : System.nanoTime();
+
+        for (int k = 0; k < n; k++) {
+            parsed[k] = BCryptHash.parseSalt(salts[k]);
+            events[k] = BCryptEvents.beginHash();
+        }
+        crypt(passwords, parsed, n, digests);
+        long nanos = m == null ? 0 : System.nanoTime() - start;
+        for (int k = 0; k < n; k++) {
+            BCryptHash p = parsed[k];
+            int len = BCryptHash.format(p.minor, p.log_rounds, p.salt,
+                    digests[k], hash_chars);
+            hashes[k] = new String(hash_chars, 0, len);
+            BCryptEvents.endHash(events[k], p.minor, p.log_rounds, "hashed");
+            if (m != null) {
+                m.hashed(p.minor, p.log_rounds, nanos);
+            }
+        }
+    }
+
+    /**
+     * Check a group of passwords against their hashes. The digests are
+     * compared in constant time.
+     * @param passwords	the passwords to check, at most LANES of them
+     * @param hashed	the parsed hashes to check them against
+     * @param results	the array to store the outcomes in
+     */
+    void verify(byte passwords[][], BCryptHash hashed[], boolean results[]) {
+        int n = passwords.length;
+        byte digests[][] = new byte[n][];
+        Object events[] = new Object[n];
+        BCryptMetrics m = BCrypt.getMetrics();
+        long start = m == null ? 0 : System.nanoTime();
+
+        for (int k = 0; k < n; k++) {
+            events[k] = BCryptEvents.beginVerify();
+        }
+        crypt(passwords, hashed, n, digests);
+        long nanos = m == null ? 0 : System.nanoTime() - start;
+        for (int k = 0; k < n; k++) {
+            BCryptHash h = hashed[k];
+            int ret = 0;
+            for (int i = 0; i < BCryptHash.DIGEST_LEN; i++)
+                ret |= h.digest[i] ^ digests[k][i];
+            results[k] = ret == 0;
+            BCryptEvents.endVerify(events[k], h.minor, h.log_rounds,
+                    ret == 0 ? "match" : "mismatch");
+            if (m != null) {
+                m.verified(h.minor, h.log_rounds, ret == 0, nanos);
+            }
+        }
+    }
+
+    /**
+     * Check a group of passwords as verify() does, except that a pair
+     * bcrypt cannot hash, such as an empty password with a "$2$" hash,
+     * only fails its own lane. The group is then checked again one pair
+     * at a time, and such pairs are reported as malformed.
+     * @param passwords	the passwords to check, at most LANES of them
+     * @param hashed	the parsed hashes to check them against
+     * @param results	the array to store the outcomes in
+     * @param malformed	the array to store in which pairs could not be
+     * hashed
+     */
+    void verifyEach(byte passwords[][], BCryptHash hashed[],
+            boolean results[], boolean malformed[]) {
+        try {
+            verify(passwords, hashed, results);
+            return;
+        } catch (IllegalArgumentException iae) {
+        }
+        boolean ok[] = new boolean[1];
+        for (int k = 0; k < passwords.length; k++) {
+            try {
+                verify(new byte[][] { passwords[k] },
+                        new BCryptHash[] { hashed[k] }, ok);
+                results[k] = ok[0];
+            } catch (IllegalArgumentException iae) {
+                results[k] = false;
+                malformed[k] = true;
+                BCryptEvents.endVerify(BCryptEvents.beginVerify(),
+                        (char) 0, 0, "malformed");
+                BCryptMetrics m = BCrypt.getMetrics();
+                if (m != null) {
+                    m.malformed();
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute the digests of a group of passwords, in lockstep if they
+     * share a cost and one at a time otherwise
+     * @param passwords	the passwords to hash
+     * @param params	the version, cost and salt of each lane
+     * @param n	the number of lanes in use, at most LANES
+     * @param digests	the array to store the digests in
+     */
+    private void crypt(byte passwords[][], BCryptHash params[],
+            int n, byte digests[][]) {
+        if (n == 0) {
+            return;
+        }
+        int log_rounds = params[0].log_rounds;
+        boolean lockstep = n > 1;
+        for (int k = 1; k < n; k++) {
+            lockstep &= params[k].log_rounds == log_rounds;
+        }
+
+        if (!lockstep) {
+            for (int k = 0; k < n; k++) {
+                BCrypt e = engines[0];
+                digests[k] = e.eks_run(e.eks_setup(passwords[k],
+                            params[k].minor, params[k].salt,
+                            params[k].log_rounds), params[k].log_rounds);
+            }
+            return;
+        }
+
+        for (int k = 0; k < n; k++) {
+            pw_words[k] = engines[k].eks_setup(passwords[k],
+                    params[k].minor, params[k].salt, log_rounds);
+        }
+        for (int k = n; k < LANES; k++) {
+            // Pad with copies of the first lane
+            BCrypt e = engines[k];
+            System.arraycopy(T0, 0, e.state, 0, BCrypt.STATE_LEN);
+            System.arraycopy(engines[0].salt_words, 0, e.salt_words, 0,
+                    e.salt_words.length);
+            pw_words[k] = pw_words[0];
+        }
+
+        if (VECTOR) {
+            BCryptVector.run(engines, pw_words, log_rounds);
+        } else {
+            keyLoop(log_rounds);
+        }
+        for (int k = 0; k < LANES; k++) {
+            byte d[] = engines[k].eks_finish();
+            if (k < n) {
+                digests[k] = d;
+            }
+            pw_words[k] = null;
+        }
+    }
+
+    /**
+     * Run the expensive loop of four lanes in lockstep, as
+     * BCrypt.crypt_raw
+     * @param log_rounds	the binary logarithm of the number of rounds
+     */
+    private void keyLoop(int log_rounds) {
+        int rounds = 1 << log_rounds;
+        for (int i = 0; i != rounds; i++) {
+            key(pw_words[0], pw_words[1], pw_words[2], pw_words[3]);
+            key(engines[0].salt_words, engines[1].salt_words,
+                    engines[2].salt_words, engines[3].salt_words);
+        }
+    }
+
+    /**
+     * Key the Blowfish ciphers of all four lanes, as BCrypt.key. The
+     * four Blowfish encryptions are written out side by side so that
+     * their blocks and tables stay in registers.
+     * @param k0	the key of lane 0
+     * @param k1	the key of lane 1
+     * @param k2	the key of lane 2
+     * @param k3	the key of lane 3
+     */
+    private void key(int k0[], int k1[], int k2[], int k3[]) {
+        final int T0[] = this.T0, T1[] = this.T1, T2[] = this.T2, T3[] = this.T3;
+        int i, j, l0, r0, l1, r1, l2, r2, l3, r3;
+
+        for (i = 0; i < BCrypt.P_LEN; i++) {
+            T0[i] ^= k0[i];
+            T1[i] ^= k1[i];
+            T2[i] ^= k2[i];
+            T3[i] ^= k3[i];
+        }
+
+        l0 = r0 = l1 = r1 = l2 = r2 = l3 = r3 = 0;
+        for (j = 0; j < BCrypt.STATE_LEN; j += 2) {
+            // Encipher the blocks of the four lanes, as BCrypt.encipher
+            l0 ^= T0[0];
+            l1 ^= T1[0];
+            l2 ^= T2[0];
+            l3 ^= T3[0];
+            for (i = 1; i < 17; i += 2) {
+                r0 ^= BCrypt.f(T0, l0) ^ T0[i];
+                r1 ^= BCrypt.f(T1, l1) ^ T1[i];
+                r2 ^= BCrypt.f(T2, l2) ^ T2[i];
+                r3 ^= BCrypt.f(T3, l3) ^ T3[i];
+
+                l0 ^= BCrypt.f(T0, r0) ^ T0[i + 1];
+                l1 ^= BCrypt.f(T1, r1) ^ T1[i + 1];
+                l2 ^= BCrypt.f(T2, r2) ^ T2[i + 1];
+                l3 ^= BCrypt.f(T3, r3) ^ T3[i + 1];
+            }
+            int t0 = r0 ^ T0[17]; r0 = l0; l0 = t0;
+            int t1 = r1 ^ T1[17]; r1 = l1; l1 = t1;
+            int t2 = r2 ^ T2[17]; r2 = l2; l2 = t2;
+            int t3 = r3 ^ T3[17]; r3 = l3; l3 = t3;
+
+            T0[j] = l0; T0[j + 1] = r0;
+            T1[j] = l1; T1[j + 1] = r1;
+            T2[j] = l2; T2[j + 1] = r2;
+            T3[j] = l3; T3[j + 1] = r3;
+        }
+    }
+}
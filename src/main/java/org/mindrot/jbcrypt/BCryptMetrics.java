@@ -0,0 +1,58 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+/**
+ * BCryptMetrics is told the duration and outcome of hashes and
+ * verifications. A listener is installed with BCrypt.setMetrics() and
+ * is called on the hashing thread, so it must be quick and thread-safe
+ * and must not throw. BCryptStats is a ready-made implementation.
+ * <p>
+ * The minor version passed to a listener is one of 'a', 'b', 'x' or
+ * 'y', or 0 for the original "$2$" variant.
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public interface BCryptMetrics {
+    /**
+     * Called after a password has been hashed
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @param nanos	the time taken, in nanoseconds
+     */
+    void hashed(char minor, int log_rounds, long nanos);
+
+    /**
+     * Called after a password has been checked against a hash
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @param matched	true if the password matched
+     * @param nanos	the time taken, in nanoseconds
+     */
+    void verified(char minor, int log_rounds, boolean matched, long nanos);
+
+    /**
+     * Called when a password is checked against a malformed hash
+     */
+    void malformed();
+
+    /**
+     * Called when a hash or verification with a timeout is abandoned
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @param nanos	the time spent before giving up, in nanoseconds
+     */
+    void timedOut(char minor, int log_rounds, long nanos);
+}
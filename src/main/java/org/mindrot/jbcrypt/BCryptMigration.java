@@ -0,0 +1,339 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * BCryptMigration wraps legacy password digests (MD5, SHA-1 and the
+ * like) in bcrypt in bulk, so that a table of old digests can be moved
+ * to bcrypt(digest) without waiting for every user to log in.
+ * <p>
+ * Records are lines of the form <code>key:digest</code>. Each is
+ * written out as <code>key:hash</code>, where hash is BCrypt.hashpw of
+ * the UTF-8 bytes of the digest exactly as it appears, with a fresh
+ * salt. The key runs to the last colon; a line without one is hashed
+ * whole and written as the hash alone.
+ * <p>
+ * Records are read and hashed a window at a time, the window being
+ * hashed in parallel with BCryptBatch while the previous one is written
+ * and the next one read, so memory use is bounded by two windows and
+ * the output is in input order. When migrating between files, a
+ * checkpoint of the records done and the length of the output is
+ * saved after each window, and a job that is killed resumes after the
+ * last window saved:
+ * <p>
+ * <code>
+ * BCryptMigration m = new BCryptMigration("$2y", 10, 4096);<br />
+ * m.migrate(Paths.get("md5.txt"), Paths.get("bcrypt.txt"),
+ * Paths.get("bcrypt.ckpt"));<br />
+ * </code>
+ * <p>
+ * Once the job is complete the checkpoint is left in place, so running
+ * it again does nothing. Delete the checkpoint to start afresh.
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public final class BCryptMigration {
+    private final String prefix;
+    private final int log_rounds;
+    private final int window;
+    private final ForkJoinPool pool;
+
+    /**
+     * Create a migration that hashes on the common fork/join pool
+     * @param prefix	the hash prefix, as BCrypt.gensalt
+     * @param log_rounds	the log2 of the number of rounds of
+     * hashing to apply
+     * @param window	the number of records to hash at once
+     * @exception IllegalArgumentException if a parameter is invalid
+     */
+    public BCryptMigration(String prefix, int log_rounds, int window)
+            throws IllegalArgumentException {
+        this(prefix, log_rounds, window, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a migration that hashes on the given fork/join pool
+     * @param prefix	the hash prefix, as BCrypt.gensalt
+     * @param log_rounds	the log2 of the number of rounds of
+     * hashing to apply
+     * @param window	the number of records to hash at once
+     * @param pool	the pool to hash on
+     * @exception IllegalArgumentException if a parameter is invalid
+     */
+    public BCryptMigration(String prefix, int log_rounds, int window,
+            ForkJoinPool pool) throws IllegalArgumentException {
+        BCrypt.checkGensalt(prefix, log_rounds);
+        if (window < 1) {
+            throw new IllegalArgumentException("Bad window size");
+        }
+        this.prefix = prefix;
+        this.log_rounds = log_rounds;
+        this.window = window;
+        this.pool = pool;
+    }
+
+    /**
+     * Migrate the records of a file into another, resuming from the
+     * checkpoint if there is one. Output written after the checkpoint
+     * was saved is discarded and redone.
+     * @param input	the file of legacy records, in UTF-8
+     * @param output	the file to write the migrated records to
+     * @param checkpoint	the file to save progress in
+     * @return	the number of records migrated by this call
+     * @exception IOException if a file cannot be read or written, or
+     * the checkpoint is corrupt
+     */
+    public long migrate(Path input, Path output, Path checkpoint)
+            throws IOException {
+        long done[] = readCheckpoint(checkpoint);
+        final Path tmp = checkpoint.resolveSibling(
+                checkpoint.getFileName() + ".tmp");
+
+        try (BufferedReader in = Files.newBufferedReader(input,
+                    StandardCharsets.UTF_8);
+                FileChannel ch = FileChannel.open(output,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (ch.size() < done[1]) {
+                throw new IOException("Output shorter than checkpoint");
+            }
+            ch.truncate(done[1]);
+            ch.position(done[1]);
+            for (long i = 0; i < done[0]; i++) {
+                if (in.readLine() == null) {
+                    throw new IOException("Input shorter than checkpoint");
+                }
+            }
+
+            final OutputStream os = Channels.newOutputStream(ch);
+            final long start = done[0];
+            Sink sink = new Sink() {
+                long records = start;
+
+                @Override
+                public void write(String lines[], int n) throws IOException {
+                    for (int k = 0; k < n; k++) {
+                        os.write(lines[k].getBytes(StandardCharsets.UTF_8));
+                    }
+                    ch.force(false);
+                    records += n;
+                    writeCheckpoint(checkpoint, tmp, records, ch.position());
+                }
+            };
+            return run(new Source() {
+                @Override
+                public String next() throws IOException {
+                    return in.readLine();
+                }
+            }, sink);
+        }
+    }
+
+    /**
+     * Migrate records from an iterator to a writer, without
+     * checkpoints. The writer is flushed after each window.
+     * @param records	the legacy records
+     * @param out	the writer to write the migrated records to
+     * @return	the number of records migrated
+     * @exception IOException if the writer fails
+     */
+    public long migrate(final Iterator<String> records, final Writer out)
+            throws IOException {
+        return run(new Source() {
+            @Override
+            public String next() {
+                return records.hasNext() ? records.next() : null;
+            }
+        }, new Sink() {
+            @Override
+            public void write(String lines[], int n) throws IOException {
+                for (int k = 0; k < n; k++) {
+                    out.write(lines[k]);
+                }
+                out.flush();
+            }
+        });
+    }
+
+    private interface Source {
+        /**
+         * @return	the next record, or null at the end
+         */
+        String next() throws IOException;
+    }
+
+    private interface Sink {
+        /**
+         * Write a window of migrated lines, newlines included
+         */
+        void write(String lines[], int n) throws IOException;
+    }
+
+    /**
+     * A window of records: their keys, and the hashes once done
+     */
+    private static final class Window {
+        final String keys[];
+        int n;
+        CompletableFuture<String[]> hashes;
+
+        Window(int size) {
+            keys = new String[size];
+        }
+    }
+
+    /**
+     * Read, hash and write windows until the source runs dry, hashing
+     * one window while writing the one before it
+     */
+    private long run(Source source, Sink sink) throws IOException {
+        long count = 0;
+        Window pending = null;
+
+        for (;;) {
+            Window w = read(source);
+            if (w == null) {
+                break;
+            }
+            if (pending != null) {
+                count += write(pending, sink);
+            }
+            pending = w;
+        }
+        if (pending != null) {
+            count += write(pending, sink);
+        }
+        return count;
+    }
+
+    /**
+     * Read a window of records and start hashing them
+     * @return	the window, or null if there are no more records
+     */
+    private Window read(Source source) throws IOException {
+        Window w = new Window(window);
+        final byte digests[][] = new byte[window][];
+        String record;
+
+        while (w.n < window && (record = source.next()) != null) {
+            int colon = record.lastIndexOf(':');
+            w.keys[w.n] = colon < 0 ? null : record.substring(0, colon);
+            digests[w.n++] = record.substring(colon + 1)
+                .getBytes(StandardCharsets.UTF_8);
+        }
+        if (w.n == 0) {
+            return null;
+        }
+
+        final byte passwords[][] = w.n == window ? digests :
+            Arrays.copyOf(digests, w.n);
+        final String salts[] = new String[w.n];
+        SaltGenerator g = SaltGenerator.current();
+        for (int k = 0; k < w.n; k++) {
+            salts[k] = g.gensalt(prefix, log_rounds);
+        }
+        w.hashes = CompletableFuture.supplyAsync(
+                () -> BCryptBatch.hashpw(passwords, salts, pool), pool);
+        return w;
+    }
+
+    /**
+     * Wait for a window to be hashed and write it out
+     * @return	the number of records written
+     */
+    private int write(Window w, Sink sink) throws IOException {
+        String hashes[];
+
+        try {
+            hashes = w.hashes.join();
+        } catch (CompletionException ce) {
+            Throwable t = ce.getCause();
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            throw ce;
+        }
+        String lines[] = new String[w.n];
+        for (int k = 0; k < w.n; k++) {
+            lines[k] = (w.keys[k] == null ? "" : w.keys[k] + ":") +
+                hashes[k] + "\n";
+        }
+        sink.write(lines, w.n);
+        return w.n;
+    }
+
+    /**
+     * @return	the records done and the output length saved in a
+     * checkpoint, or zeros if there is none
+     */
+    private static long[] readCheckpoint(Path checkpoint) throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return new long[2];
+        }
+        String s = new String(Files.readAllBytes(checkpoint),
+                StandardCharsets.US_ASCII).trim();
+        String fields[] = s.split(" ");
+        try {
+            if (fields.length == 2) {
+                long done[] = {
+                    Long.parseLong(fields[0]), Long.parseLong(fields[1])
+                };
+                if (done[0] >= 0 && done[1] >= 0) {
+                    return done;
+                }
+            }
+        } catch (NumberFormatException nfe) {
+        }
+        throw new IOException("Corrupt checkpoint " + checkpoint);
+    }
+
+    /**
+     * Save a checkpoint, replacing the old one atomically. The new
+     * checkpoint is forced to disk before the rename, so a crash cannot
+     * leave an empty or partial file in place of the old one.
+     */
+    private static void writeCheckpoint(Path checkpoint, Path tmp,
+            long records, long offset) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap((records + " " + offset + "\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            ch.force(true);
+        }
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,469 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * BCryptScheduler shares a set of worker threads between classes of
+ * bcrypt work of different priority, such as interactive logins,
+ * sign-ups and background rehashing, so that bulk work cannot starve
+ * the latency-sensitive kind.
+ * <p>
+ * Each hash runs as a BCryptStepper, a slice of SLICE_ROUNDS rounds at
+ * a time. Before each slice a worker picks the class that has had the
+ * least work for its weight, counting work in rounds of the expensive
+ * loop, so that a cost 12 hash is charged four times as much as a cost
+ * 10 one (weighted fair queuing). Within a class, requests run in
+ * arrival order. Background classes run only when every foreground
+ * class is idle, and because work is sliced, a login that arrives
+ * while a background hash is running waits for at most one slice.
+ * <p>
+ * <code>
+ * BCryptScheduler s = new BCryptScheduler(4);<br />
+ * BCryptScheduler.PriorityClass logins = s.newClass("login", 8);<br />
+ * BCryptScheduler.PriorityClass rehash = s.newBackgroundClass("rehash");<br />
+ * logins.checkpw(candidate, stored_hash).thenAccept(...);<br />
+ * </code>
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public final class BCryptScheduler {
+    // Rounds of the expensive loop per slice
+    static final int SLICE_ROUNDS = 16;
+
+    private static final AtomicInteger scheduler_seq = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ready = lock.newCondition();
+    private final List<PriorityClass> classes = new ArrayList<PriorityClass>();
+    private final Thread workers[];
+    // Virtual times: the work done per unit of weight by the foreground
+    // and background class served last
+    private double vtime, background_vtime;
+    private boolean shutdown;
+    // True once shutdownNow has been called
+    private boolean stopped;
+
+    /**
+     * Create a scheduler and start its worker threads, which are
+     * daemon threads
+     * @param threads	the number of worker threads
+     * @exception IllegalArgumentException if threads is not positive
+     */
+    public BCryptScheduler(int threads) throws IllegalArgumentException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Invalid threads");
+        }
+        String name_prefix = "jbcrypt-scheduler-" +
+            scheduler_seq.incrementAndGet() + "-";
+        workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::work, name_prefix + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Add a foreground class of work
+     * @param name	the name of the class
+     * @param weight	the share of the workers the class gets when
+     * every class is busy, relative to the other foreground classes
+     * @return	the new class
+     * @exception IllegalArgumentException if weight is not positive
+     */
+    public PriorityClass newClass(String name, int weight)
+            throws IllegalArgumentException {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Invalid weight");
+        }
+        return addClass(new PriorityClass(name, weight, false));
+    }
+
+    /**
+     * Add a background class of work, which only runs when the
+     * foreground classes have nothing to do. Background classes share
+     * idle time equally between them.
+     * @param name	the name of the class
+     * @return	the new class
+     */
+    public PriorityClass newBackgroundClass(String name) {
+        return addClass(new PriorityClass(name, 1, true));
+    }
+
+    private PriorityClass addClass(PriorityClass c) {
+        lock.lock();
+        try {
+            c.vtime = c.background ? background_vtime : vtime;
+            classes.add(c);
+        } finally {
+            lock.unlock();
+        }
+        return c;
+    }
+
+    /**
+     * Stop accepting work. Work already submitted is finished, after
+     * which the workers exit.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            ready.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting work and cancel the work not yet finished. The
+     * futures of cancelled work complete with a CancellationException.
+     */
+    public void shutdownNow() {
+        List<Task> cancelled = new ArrayList<Task>();
+        lock.lock();
+        try {
+            shutdown = true;
+            stopped = true;
+            for (PriorityClass c : classes) {
+                cancelled.addAll(c.queue);
+                c.queue.clear();
+            }
+            ready.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Task t : cancelled) {
+            t.cancel();
+        }
+    }
+
+    /**
+     * Queue a task
+     * @exception RejectedExecutionException if the scheduler is shut down
+     */
+    private void submit(PriorityClass c, Task t)
+            throws RejectedExecutionException {
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException("Scheduler shut down");
+            }
+            if (c.queue.isEmpty() && c.running == 0) {
+                // An idle class does not bank credit while idle
+                c.vtime = Math.max(c.vtime,
+                        c.background ? background_vtime : vtime);
+            }
+            c.queue.add(t);
+            ready.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pick the class to serve next: the foreground class with the
+     * least work for its weight, or failing that the background class
+     * with the least work. Must be called with the lock held.
+     * @return	the class, or null if there is no work
+     */
+    private PriorityClass pick() {
+        PriorityClass best = null;
+
+        for (PriorityClass c : classes) {
+            if (c.queue.isEmpty()) {
+                continue;
+            }
+            if (best == null || best.background && !c.background ||
+                    best.background == c.background && c.vtime < best.vtime) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Run slices of work until the scheduler is shut down and idle
+     */
+    private void work() {
+        for (;;) {
+            PriorityClass c;
+            Task t;
+
+            lock.lock();
+            try {
+                while ((c = pick()) == null) {
+                    if (shutdown) {
+                        return;
+                    }
+                    ready.awaitUninterruptibly();
+                }
+                t = c.queue.poll();
+                c.running++;
+                if (c.background) {
+                    background_vtime = Math.max(background_vtime, c.vtime);
+                } else {
+                    vtime = Math.max(vtime, c.vtime);
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            int rounds = t.slice();
+            boolean cancel = false;
+
+            lock.lock();
+            try {
+                c.running--;
+                c.vtime += (double) rounds / c.weight;
+                if (!t.isDone() && stopped) {
+                    cancel = true;
+                } else if (!t.isDone()) {
+                    // Keep the arrival order within the class
+                    c.queue.addFirst(t);
+                    ready.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (cancel) {
+                t.cancel();
+            }
+        }
+    }
+
+    /**
+     * A hash or verification and the future for its result
+     */
+    private abstract static class Task {
+        private BCryptStepper stepper;
+        private boolean done;
+
+        /**
+         * @return	the stepper for the work, with its setup done
+         */
+        abstract BCryptStepper start();
+
+        /**
+         * Complete the future with the result of the finished stepper
+         */
+        abstract void finish(BCryptStepper s);
+
+        /**
+         * Complete the future exceptionally
+         */
+        abstract void fail(Throwable t);
+
+        /**
+         * Run a slice of the work
+         * @return	the rounds of the expensive loop run, counting
+         * the setup as one
+         */
+        final int slice() {
+            try {
+                if (stepper == null) {
+                    stepper = start();
+                    return 1;
+                }
+                int before = stepper.getRound();
+                if (stepper.advance(SLICE_ROUNDS)) {
+                    done = true;
+                    finish(stepper);
+                }
+                return stepper.getRound() - before;
+            } catch (RuntimeException e) {
+                done = true;
+                fail(e);
+                return 1;
+            }
+        }
+
+        final boolean isDone() {
+            return done;
+        }
+
+        final void cancel() {
+            if (stepper != null) {
+                stepper.cancel();
+            }
+            fail(new CancellationException("Scheduler shut down"));
+        }
+    }
+
+    /**
+     * PriorityClass is a named class of work with a share of the
+     * scheduler's workers. Its methods may be called from any thread.
+     */
+    public final class PriorityClass {
+        private final String name;
+        private final int weight;
+        private final boolean background;
+        private final ArrayDeque<Task> queue = new ArrayDeque<Task>();
+        // Work done divided by weight; guarded by the scheduler's lock
+        private double vtime;
+        private int running;
+
+        private PriorityClass(String name, int weight, boolean background) {
+            this.name = name;
+            this.weight = weight;
+            this.background = background;
+        }
+
+        /**
+         * Hash a password using the OpenBSD bcrypt scheme
+         * @param password	the password to hash
+         * @param salt	the salt to hash with (perhaps generated
+         * using BCrypt.gensalt)
+         * @return	a future for the hashed password, which completes
+         * exceptionally if the salt is malformed
+         * @exception RejectedExecutionException if the scheduler is
+         * shut down
+         */
+        public CompletableFuture<String> hashpw(String password, String salt)
+                throws RejectedExecutionException {
+            return hashpw(BCrypt.stringToBytes(password), salt);
+        }
+
+        /**
+         * Hash a password using the OpenBSD bcrypt scheme. The array
+         * must not be changed until the future completes.
+         * @param passwordb	the password to hash, as a byte array
+         * @param salt	the salt to hash with (perhaps generated
+         * using BCrypt.gensalt)
+         * @return	a future for the hashed password, which completes
+         * exceptionally if the salt is malformed
+         * @exception RejectedExecutionException if the scheduler is
+         * shut down
+         */
+        public CompletableFuture<String> hashpw(final byte passwordb[],
+                final String salt) throws RejectedExecutionException {
+            final CompletableFuture<String> f = new CompletableFuture<String>();
+            submit(this, new Task() {
+                @Override
+                BCryptStepper start() {
+                    return BCryptStepper.hash(passwordb, salt);
+                }
+
+                @Override
+                void finish(BCryptStepper s) {
+                    f.complete(s.getHash());
+                }
+
+                @Override
+                void fail(Throwable t) {
+                    f.completeExceptionally(t);
+                }
+            });
+            return f;
+        }
+
+        /**
+         * Check that a plaintext password matches a previously hashed
+         * one
+         * @param plaintext	the plaintext password to verify
+         * @param hashed	the previously-hashed password
+         * @return	a future for whether the passwords match, which
+         * completes exceptionally if hashed is malformed
+         * @exception RejectedExecutionException if the scheduler is
+         * shut down
+         */
+        public CompletableFuture<Boolean> checkpw(String plaintext,
+                String hashed) throws RejectedExecutionException {
+            return checkpw(BCrypt.stringToBytes(plaintext), hashed);
+        }
+
+        /**
+         * Check that a plaintext byte[] password matches a previously
+         * hashed one. The array must not be changed until the future
+         * completes.
+         * @param plaintext	the plaintext password to verify
+         * @param hashed	the previously-hashed password
+         * @return	a future for whether the passwords match, which
+         * completes exceptionally if hashed is malformed
+         * @exception RejectedExecutionException if the scheduler is
+         * shut down
+         */
+        public CompletableFuture<Boolean> checkpw(final byte plaintext[],
+                final String hashed) throws RejectedExecutionException {
+            final CompletableFuture<Boolean> f = new CompletableFuture<Boolean>();
+            submit(this, new Task() {
+                @Override
+                BCryptStepper start() {
+                    return BCryptStepper.verify(plaintext, hashed);
+                }
+
+                @Override
+                void finish(BCryptStepper s) {
+                    f.complete(s.matches());
+                }
+
+                @Override
+                void fail(Throwable t) {
+                    f.completeExceptionally(t);
+                }
+            });
+            return f;
+        }
+
+        /**
+         * @return	the name of the class
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return	the weight of the class, 1 for a background class
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * @return	true if the class only runs when the foreground
+         * classes are idle
+         */
+        public boolean isBackground() {
+            return background;
+        }
+
+        /**
+         * @return	the number of requests waiting or running
+         */
+        public int getQueuedCount() {
+            lock.lock();
+            try {
+                return queue.size() + running;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
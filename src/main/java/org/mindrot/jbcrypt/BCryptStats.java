@@ -0,0 +1,371 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BCryptStats is a BCryptMetrics listener that keeps counts and latency
+ * histograms for each variant and cost factor. Recording is lock-free:
+ * counts use striped LongAdder cells, and each latency histogram is a
+ * fixed array of log-linear buckets updated atomically. The storage for
+ * a variant and cost is only allocated when it is first seen.
+ * <p>
+ * To collect statistics for the whole application:
+ * <p>
+ * <code>
+ * BCryptStats stats = new BCryptStats();<br />
+ * BCrypt.setMetrics(stats);<br />
+ * ...<br />
+ * long p99 = stats.getVerifyLatency('y', 12).getValueAtPercentile(99.0);<br />
+ * </code>
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public final class BCryptStats implements BCryptMetrics {
+    // Minor versions in the order they are indexed, 0 being "$2$"
+    private static final String MINORS = "\0abxy";
+    private static final int MIN_LOG_ROUNDS = 4;
+    private static final int MAX_LOG_ROUNDS = 30;
+    private static final int NUM_ROUNDS = MAX_LOG_ROUNDS - MIN_LOG_ROUNDS + 1;
+
+    /**
+     * The statistics kept for one variant and cost factor
+     */
+    private static final class Cell {
+        final LongAdder matches = new LongAdder();
+        final LongAdder mismatches = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final Histogram hash_latency = new Histogram();
+        final Histogram verify_latency = new Histogram();
+    }
+
+    private final AtomicReferenceArray<Cell> cells =
+        new AtomicReferenceArray<Cell>(MINORS.length() * NUM_ROUNDS);
+    private final LongAdder malformed = new LongAdder();
+
+    /**
+     * Find the index of the cell for a variant and cost
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @return	the index of the cell, or -1 if there is none
+     */
+    private static int index(char minor, int log_rounds) {
+        int m = MINORS.indexOf(minor);
+        if (m < 0 || log_rounds < MIN_LOG_ROUNDS ||
+                log_rounds > MAX_LOG_ROUNDS) {
+            return -1;
+        }
+        return m * NUM_ROUNDS + log_rounds - MIN_LOG_ROUNDS;
+    }
+
+    /**
+     * Get the cell for a variant and cost, creating it if needed
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @return	the cell, or null if the variant or cost is unknown
+     */
+    private Cell cell(char minor, int log_rounds) {
+        int i = index(minor, log_rounds);
+        if (i < 0) {
+            return null;
+        }
+        Cell c = cells.get(i);
+        if (c == null) {
+            cells.compareAndSet(i, null, new Cell());
+            c = cells.get(i);
+        }
+        return c;
+    }
+
+    /**
+     * Get the cell for a variant and cost without creating it
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @return	the cell, or null if nothing has been recorded for it
+     */
+    private Cell peek(char minor, int log_rounds) {
+        int i = index(minor, log_rounds);
+        return i < 0 ? null : cells.get(i);
+    }
+
+    @Override
+    public void hashed(char minor, int log_rounds, long nanos) {
+        Cell c = cell(minor, log_rounds);
+        if (c != null) {
+            c.hash_latency.record(nanos);
+        }
+    }
+
+    @Override
+    public void verified(char minor, int log_rounds, boolean matched,
+            long nanos) {
+        Cell c = cell(minor, log_rounds);
+        if (c != null) {
+            (matched ? c.matches : c.mismatches).increment();
+            c.verify_latency.record(nanos);
+        }
+    }
+
+    @Override
+    public void malformed() {
+        malformed.increment();
+    }
+
+    @Override
+    public void timedOut(char minor, int log_rounds, long nanos) {
+        Cell c = cell(minor, log_rounds);
+        if (c != null) {
+            c.timeouts.increment();
+        }
+    }
+
+    /**
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @return	the number of hashes made with the variant and cost
+     */
+    public long getHashCount(char minor, int log_rounds) {
+        Cell c = peek(minor, log_rounds);
+        return c == null ? 0 : c.hash_latency.getCount();
+    }
+
+    /**
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @return	the number of verifications that matched
+     */
+    public long getMatchCount(char minor, int log_rounds) {
+        Cell c = peek(minor, log_rounds);
+        return c == null ? 0 : c.matches.sum();
+    }
+
+    /**
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @return	the number of verifications that did not match
+     */
+    public long getMismatchCount(char minor, int log_rounds) {
+        Cell c = peek(minor, log_rounds);
+        return c == null ? 0 : c.mismatches.sum();
+    }
+
+    /**
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @return	the number of hashes and verifications abandoned
+     * because their time ran out
+     */
+    public long getTimeoutCount(char minor, int log_rounds) {
+        Cell c = peek(minor, log_rounds);
+        return c == null ? 0 : c.timeouts.sum();
+    }
+
+    /**
+     * @return	the number of verifications against a malformed hash
+     */
+    public long getMalformedCount() {
+        return malformed.sum();
+    }
+
+    /**
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @return	the latency histogram for hashing, or null if nothing
+     * has been recorded for the variant and cost
+     */
+    public Histogram getHashLatency(char minor, int log_rounds) {
+        Cell c = peek(minor, log_rounds);
+        return c == null ? null : c.hash_latency;
+    }
+
+    /**
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @return	the latency histogram for verification, or null if
+     * nothing has been recorded for the variant and cost
+     */
+    public Histogram getVerifyLatency(char minor, int log_rounds) {
+        Cell c = peek(minor, log_rounds);
+        return c == null ? null : c.verify_latency;
+    }
+
+    /**
+     * Forget everything recorded so far
+     */
+    public void reset() {
+        for (int i = 0; i < cells.length(); i++) {
+            cells.set(i, null);
+        }
+        malformed.reset();
+    }
+
+    /**
+     * @return	a summary of the recorded statistics, one line per
+     * variant and cost
+     */
+    @Override
+    public String toString() {
+        StringBuilder rs = new StringBuilder();
+
+        for (int i = 0; i < cells.length(); i++) {
+            Cell c = cells.get(i);
+            if (c == null) {
+                continue;
+            }
+            char minor = MINORS.charAt(i / NUM_ROUNDS);
+            rs.append("$2");
+            if (minor != 0) {
+                rs.append(minor);
+            }
+            int log_rounds = MIN_LOG_ROUNDS + i % NUM_ROUNDS;
+            rs.append('$').append(log_rounds / 10).append(log_rounds % 10);
+            rs.append(" hash=").append(c.hash_latency);
+            rs.append(" verify=").append(c.verify_latency);
+            rs.append(" matched=").append(c.matches.sum());
+            rs.append(" mismatched=").append(c.mismatches.sum());
+            rs.append(" timedout=").append(c.timeouts.sum());
+            rs.append('\n');
+        }
+        rs.append("malformed=").append(malformed.sum());
+        return rs.toString();
+    }
+
+    /**
+     * Histogram is a latency histogram with log-linear buckets, in the
+     * style of HdrHistogram: each power of two is split into 16 equal
+     * buckets, so any recorded value is known to within 1/16th of
+     * itself. It covers every non-negative long in 960 buckets.
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int NUM_BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        /**
+         * Find the bucket for a value
+         * @param value	the value, which must not be negative
+         * @return	the index of the bucket holding the value
+         */
+        static int bucket(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return (shift + 1) * SUB_COUNT +
+                (int) (value >>> shift) - SUB_COUNT;
+        }
+
+        /**
+         * Find the lowest value held by a bucket
+         * @param bucket	the index of the bucket
+         * @return	the lowest value in the bucket
+         */
+        static long lowest(int bucket) {
+            if (bucket < SUB_COUNT) {
+                return bucket;
+            }
+            int shift = bucket / SUB_COUNT - 1;
+            return (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+        }
+
+        /**
+         * Record a value
+         * @param value	the value, negative values being recorded as 0
+         */
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            total.add(value);
+            max.accumulate(value);
+        }
+
+        /**
+         * @return	the number of values recorded
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @return	the largest value recorded, or 0 if none
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @return	the mean of the values recorded, or 0 if none
+         */
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) total.sum() / n;
+        }
+
+        /**
+         * Estimate a percentile of the recorded values. The result is
+         * the highest value of the bucket the percentile falls in,
+         * capped at the largest value recorded.
+         * @param percentile	the percentile, between 0 and 100
+         * @return	the estimated value, or 0 if nothing was recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            long counts[] = new long[NUM_BUCKETS];
+            long n = 0;
+
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                n += counts[i];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1,
+                    (long) Math.ceil(n * Math.min(percentile, 100.0) / 100.0));
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    long high = i + 1 < NUM_BUCKETS ?
+                        lowest(i + 1) - 1 : Long.MAX_VALUE;
+                    return Math.min(high, getMax());
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * @return	the count, mean, median, 99th percentile and maximum
+         */
+        @Override
+        public String toString() {
+            return "[n=" + getCount() + " mean=" + (long) getMean() +
+                " p50=" + getValueAtPercentile(50) +
+                " p99=" + getValueAtPercentile(99) +
+                " max=" + getMax() + "]";
+        }
+    }
+}
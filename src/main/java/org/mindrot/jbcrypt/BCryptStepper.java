@@ -0,0 +1,310 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+/**
+ * BCryptStepper is a bcrypt hash or verification that runs a few rounds
+ * at a time. It holds the Blowfish key schedule and the round counter
+ * of the expensive loop between calls to advance(), so that an event
+ * loop can interleave a costly hash with its other work, bounding the
+ * time taken by each slice without handing the hash to another thread:
+ * <p>
+ * <code>
+ * BCryptStepper s = BCryptStepper.verify(candidate, stored_hash);<br />
+ * while (!s.advance(64)) {<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;// service other events<br />
+ * }<br />
+ * if (s.matches())<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;System.out.println("It matches");<br />
+ * </code>
+ * <p>
+ * The result is identical to that of BCrypt.hashpw or BCrypt.checkpw.
+ * Each round keys the cipher twice, so a slice of n rounds costs about
+ * as much as a whole hash at cost 4 when n is 16. Instances are not
+ * thread-safe, but may be advanced by different threads in turn if
+ * the handover is properly synchronized.
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public final class BCryptStepper {
+    private final BCrypt engine = new BCrypt();
+    private final BCryptHash params;
+    // True to compare against params.digest, false to format a hash
+    private final boolean verifying;
+    private final int rounds;
+    private int pw_words[];
+    private int round;
+    private byte digest[];
+    private boolean matched;
+    private boolean cancelled;
+
+    private final Object event;
+    private long nanos;
+
+    /**
+     * Create a verification against a hash that can match no password,
+     * which is finished at once without hashing
+     */
+    private BCryptStepper() {
+        this.params = null;
+        this.verifying = true;
+        this.rounds = 0;
+        this.event = null;
+        digest = new byte[0];
+    }
+
+    private BCryptStepper(byte passwordb[], BCryptHash params,
+            boolean verifying) {
+        this.params = params;
+        this.verifying = verifying;
+        this.rounds = 1 << params.log_rounds;
+        this.event = verifying ? BCryptEvents.beginVerify() :
+            BCryptEvents.beginHash();
+        long start = System.nanoTime();
+        pw_words = engine.eks_setup(passwordb, params.minor, params.salt,
+                params.log_rounds);
+        nanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Start hashing a password, as BCrypt.hashpw. The password is
+     * expanded and the initial key schedule run before returning.
+     * @param password	the password to hash
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @return	the hash in progress
+     * @exception IllegalArgumentException if the salt is malformed
+     */
+    public static BCryptStepper hash(String password, String salt)
+            throws IllegalArgumentException {
+        return hash(BCrypt.stringToBytes(password), salt);
+    }
+
+    /**
+     * Start hashing a password, as BCrypt.hashpw
+     * @param passwordb	the password to hash, as a byte array
+     * @param salt	the salt to hash with (perhaps generated
+     * using BCrypt.gensalt)
+     * @return	the hash in progress
+     * @exception IllegalArgumentException if the salt is malformed
+     */
+    public static BCryptStepper hash(byte passwordb[], String salt)
+            throws IllegalArgumentException {
+        return new BCryptStepper(passwordb, BCryptHash.parseSalt(salt),
+                false);
+    }
+
+    /**
+     * Start checking a plaintext password against a previously hashed
+     * one, as BCrypt.checkpw
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	the verification in progress, or a finished one that
+     * does not match if hashed can match no password
+     * @exception IllegalArgumentException if hashed does not start
+     * with a valid version, cost and salt
+     */
+    public static BCryptStepper verify(String plaintext, String hashed)
+            throws IllegalArgumentException {
+        return verify(BCrypt.stringToBytes(plaintext), hashed);
+    }
+
+    /**
+     * Start checking a plaintext byte[] password against a previously
+     * hashed one, as BCrypt.checkpw
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	the verification in progress, or a finished one that
+     * does not match if hashed can match no password
+     * @exception IllegalArgumentException if hashed does not start
+     * with a valid version, cost and salt
+     */
+    public static BCryptStepper verify(byte plaintext[], String hashed)
+            throws IllegalArgumentException {
+        BCryptHash parsed = null;
+
+        try {
+            parsed = BCryptHash.parseStored(hashed);
+        } finally {
+            if (parsed == null) {
+                BCrypt.reportMalformed();
+            }
+        }
+        return parsed == null ? new BCryptStepper() :
+            verify(plaintext, parsed);
+    }
+
+    /**
+     * Start checking a plaintext byte[] password against a previously
+     * hashed and parsed one
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	the verification in progress
+     */
+    public static BCryptStepper verify(byte plaintext[], BCryptHash hashed) {
+        return new BCryptStepper(plaintext, hashed, true);
+    }
+
+    /**
+     * Run up to a number of rounds of the expensive loop, finishing the
+     * hash if the last round is reached
+     * @param max_rounds	the most rounds to run
+     * @return	true if the hash is finished
+     * @exception IllegalArgumentException if max_rounds is negative
+     * @exception IllegalStateException if the hash has been cancelled
+     */
+    public boolean advance(int max_rounds)
+            throws IllegalArgumentException, IllegalStateException {
+        if (max_rounds < 0) {
+            throw new IllegalArgumentException("Negative max_rounds");
+        }
+        if (cancelled) {
+            throw new IllegalStateException("Hash cancelled");
+        }
+        if (digest != null) {
+            return true;
+        }
+
+        long start = System.nanoTime();
+        int end = rounds - round <= max_rounds ? rounds : round + max_rounds;
+        int salt_words[] = engine.salt_words;
+        for (; round != end; round++) {
+            engine.key(pw_words);
+            engine.key(salt_words);
+        }
+        if (round == rounds) {
+            finish();
+        }
+        nanos += System.nanoTime() - start;
+        if (digest != null) {
+            report();
+        }
+        return digest != null;
+    }
+
+    /**
+     * Finish the hash, and compare it in constant time if verifying
+     */
+    private void finish() {
+        byte d[] = engine.eks_finish();
+        pw_words = null;
+        if (verifying) {
+            int ret = 0;
+            for (int i = 0; i < BCryptHash.DIGEST_LEN; i++)
+                ret |= params.digest[i] ^ d[i];
+            matched = ret == 0;
+        }
+        digest = d;
+    }
+
+    /**
+     * Report the finished hash to the metrics listener and JFR. The
+     * duration reported is the time spent in advance(), not the time
+     * since the hash was started.
+     */
+    private void report() {
+        BCryptMetrics m = BCrypt.getMetrics();
+        if (verifying) {
+            BCryptEvents.endVerify(event, params.minor, params.log_rounds,
+                    matched ? "match" : "mismatch");
+            if (m != null) {
+                m.verified(params.minor, params.log_rounds, matched, nanos);
+            }
+        } else {
+            BCryptEvents.endHash(event, params.minor, params.log_rounds,
+                    "hashed");
+            if (m != null) {
+                m.hashed(params.minor, params.log_rounds, nanos);
+            }
+        }
+    }
+
+    /**
+     * Abandon the hash, wiping the key schedule and expanded password.
+     * Does nothing if the hash is already finished.
+     */
+    public void cancel() {
+        if (digest == null && !cancelled) {
+            engine.wipe();
+            pw_words = null;
+            cancelled = true;
+        }
+    }
+
+    /**
+     * @return	true if the hash is finished
+     */
+    public boolean isDone() {
+        return digest != null;
+    }
+
+    /**
+     * @return	true if the hash has been cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return	the number of rounds of the expensive loop run so far
+     */
+    public int getRound() {
+        return round;
+    }
+
+    /**
+     * @return	the number of rounds of the expensive loop in all,
+     * two to the power of the cost
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+    /**
+     * @return	the hashed password, as returned by BCrypt.hashpw
+     * @exception IllegalStateException if the hash is not finished
+     * or this is a verification
+     */
+    public String getHash() throws IllegalStateException {
+        if (verifying) {
+            throw new IllegalStateException("Not a hash");
+        }
+        checkDone();
+        char hash_chars[] = new char[BCryptHash.HASH_LEN];
+        int len = BCryptHash.format(params.minor, params.log_rounds,
+                params.salt, digest, hash_chars);
+        return new String(hash_chars, 0, len);
+    }
+
+    /**
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalStateException if the verification is not
+     * finished or this is a hash
+     */
+    public boolean matches() throws IllegalStateException {
+        if (!verifying) {
+            throw new IllegalStateException("Not a verification");
+        }
+        checkDone();
+        return matched;
+    }
+
+    private void checkDone() throws IllegalStateException {
+        if (digest == null) {
+            throw new IllegalStateException(cancelled ?
+                    "Hash cancelled" : "Hash not finished");
+        }
+    }
+}
@@ -0,0 +1,47 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+/**
+ * BCryptTimeoutException is thrown when a hash or verification with a
+ * timeout is abandoned, either because the time allowed ran out or
+ * because the thread was interrupted. In the latter case the thread's
+ * interrupt status is left set.
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class BCryptTimeoutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean interrupted;
+
+    /**
+     * @param message	the detail message
+     * @param interrupted	true if the hash was abandoned because the
+     * thread was interrupted
+     */
+    public BCryptTimeoutException(String message, boolean interrupted) {
+        super(message);
+        this.interrupted = interrupted;
+    }
+
+    /**
+     * @return	true if the hash was abandoned because the thread was
+     * interrupted, false if the time ran out
+     */
+    public boolean isInterrupted() {
+        return interrupted;
+    }
+}
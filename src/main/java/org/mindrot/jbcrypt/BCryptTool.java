@@ -0,0 +1,385 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BCryptTool hashes or checks a file of passwords from the command
+ * line:
+ * <p>
+ * <code>
+ * java -jar jbcrypt.jar hash [-c cost] [-p prefix] [-t threads] input [output]<br />
+ * java -jar jbcrypt.jar verify [-t threads] input [output]<br />
+ * </code>
+ * <p>
+ * To hash, each line of the input is a password, and the output has
+ * its hash on the matching line. To verify, each line is a password
+ * and a hash separated by the last colon, and the output line is
+ * "match", "mismatch" or "malformed". Lines are newline-terminated
+ * UTF-8, with an optional carriage return. The output goes to standard
+ * output if no file is given.
+ * <p>
+ * The input is memory-mapped and cut into chunks at line boundaries.
+ * Worker threads hash a chunk at a time, in lockstep groups where the
+ * costs allow (see BCryptLanes), and the results are written in input
+ * order. A summary of the throughput and the latency at each cost is
+ * printed on standard error at the end. The exit status is 0 on
+ * success, 1 if any password failed to verify and 2 on error.
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public final class BCryptTool {
+    // Bytes of input per chunk of work
+    private static final int CHUNK_SIZE = 4096;
+    // Most bytes of input mapped at once
+    private static final int MAP_SIZE = 1 << 30;
+
+    private final boolean verify;
+    private final String prefix;
+    private final int log_rounds;
+    private final int threads;
+    // Lines that did not verify, malformed ones included
+    private final AtomicLong failed = new AtomicLong();
+
+    private BCryptTool(boolean verify, String prefix, int log_rounds,
+            int threads) {
+        this.verify = verify;
+        this.prefix = prefix;
+        this.log_rounds = log_rounds;
+        this.threads = threads;
+    }
+
+    /**
+     * Run the tool and exit with its status
+     * @param args	the command line
+     */
+    public static void main(String args[]) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Run the tool
+     * @param args	the command line
+     * @param out	where to write results if no output file is given
+     * @param err	where to write the summary and any errors
+     * @return	the exit status
+     */
+    static int run(String args[], PrintStream out, PrintStream err) {
+        String prefix = "$2y";
+        int log_rounds = BCrypt.GENSALT_DEFAULT_LOG2_ROUNDS;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int i = 1;
+
+        if (args.length < 2 ||
+                !args[0].equals("hash") && !args[0].equals("verify")) {
+            return usage(err);
+        }
+        boolean verify = args[0].equals("verify");
+        try {
+            for (; i < args.length - 1 && args[i].startsWith("-"); i += 2) {
+                if (args[i].equals("-c") && !verify) {
+                    log_rounds = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("-p") && !verify) {
+                    prefix = args[i + 1];
+                } else if (args[i].equals("-t")) {
+                    threads = Integer.parseInt(args[i + 1]);
+                } else {
+                    return usage(err);
+                }
+            }
+            if (args.length - i < 1 || args.length - i > 2 || threads < 1) {
+                return usage(err);
+            }
+            BCrypt.checkGensalt(prefix, log_rounds);
+        } catch (IllegalArgumentException iae) {
+            // Includes NumberFormatException
+            err.println("bcrypt: " + iae.getMessage());
+            return usage(err);
+        }
+
+        Path input = Paths.get(args[i]);
+        BCryptTool tool = new BCryptTool(verify, prefix, log_rounds, threads);
+        BCryptMetrics old = BCrypt.getMetrics();
+        BCryptStats stats = new BCryptStats();
+        BCrypt.setMetrics(stats);
+        try {
+            long start = System.nanoTime();
+            long records;
+            if (args.length - i == 2) {
+                try (OutputStream os = Files.newOutputStream(
+                            Paths.get(args[i + 1]))) {
+                    records = tool.process(input, os);
+                }
+            } else {
+                records = tool.process(input, out);
+            }
+            double secs = (System.nanoTime() - start) / 1e9;
+            err.printf("%s %d records in %.3f s (%.1f/s) on %d threads%n",
+                    verify ? "verified" : "hashed", records, secs,
+                    records / secs, threads);
+            err.println(stats);
+            return tool.failed.get() == 0 ? 0 : 1;
+        } catch (IOException ioe) {
+            err.println("bcrypt: " + ioe.getMessage());
+            return 2;
+        } finally {
+            BCrypt.setMetrics(old);
+        }
+    }
+
+    private static int usage(PrintStream err) {
+        err.println("usage: bcrypt hash [-c cost] [-p prefix] [-t threads] " +
+                "input [output]");
+        err.println("       bcrypt verify [-t threads] input [output]");
+        return 2;
+    }
+
+    /**
+     * Hash or verify every line of a file
+     * @param input	the file to read
+     * @param os	the stream to write results to
+     * @return	the number of lines processed
+     * @exception IOException if the input cannot be read or the
+     * output written
+     */
+    private long process(Path input, OutputStream os) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        OutputStream bos = new BufferedOutputStream(os);
+        long records = 0;
+
+        try (FileChannel ch = FileChannel.open(input,
+                    StandardOpenOption.READ)) {
+            long size = ch.size();
+            long pos = 0;
+            while (pos < size) {
+                long len = Math.min(MAP_SIZE, size - pos);
+                MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY,
+                        pos, len);
+                int end = (int) len;
+                if (pos + len < size) {
+                    // Stop after the last whole line in the mapping
+                    while (end > 0 && map.get(end - 1) != '\n') {
+                        end--;
+                    }
+                    if (end == 0) {
+                        throw new IOException("Line too long");
+                    }
+                }
+                int from = 0;
+                while (from < end) {
+                    int to = Math.min(from + CHUNK_SIZE, end);
+                    while (to < end && map.get(to - 1) != '\n') {
+                        to++;
+                    }
+                    final MappedByteBuffer chunk = map;
+                    final int chunk_from = from, chunk_to = to;
+                    pending.add(workers.submit(
+                                () -> chunk(chunk, chunk_from, chunk_to)));
+                    // Bound the results held in memory
+                    while (pending.size() > 4 * threads) {
+                        records += drain(pending.remove(), bos);
+                    }
+                    from = to;
+                }
+                pos += end;
+            }
+            while (!pending.isEmpty()) {
+                records += drain(pending.remove(), bos);
+            }
+            bos.flush();
+        } finally {
+            workers.shutdownNow();
+        }
+        return records;
+    }
+
+    /**
+     * Write the results of a chunk once they are ready
+     * @return	the number of lines in the chunk
+     */
+    private static int drain(Future<byte[]> f, OutputStream os)
+            throws IOException {
+        byte result[];
+
+        try {
+            result = f.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException ee) {
+            Throwable t = ee.getCause();
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            }
+            throw new IOException(t);
+        }
+        os.write(result);
+        int lines = 0;
+        for (byte b : result) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Hash or verify the lines of a chunk of the input
+     * @param map	the mapped input
+     * @param from	the offset of the first line of the chunk
+     * @param to	the offset just after the last line of the chunk
+     * @return	the output lines of the chunk
+     */
+    private byte[] chunk(MappedByteBuffer map, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (map.get(i) == '\n') {
+                n++;
+            }
+        }
+        if (to > from && map.get(to - 1) != '\n') {
+            // Unterminated last line
+            n++;
+        }
+
+        byte lines[][] = new byte[n][];
+        int start = from;
+        for (int k = 0; k < n; k++) {
+            int end = start;
+            while (end < to && map.get(end) != '\n') {
+                end++;
+            }
+            int len = end - start;
+            if (len > 0 && map.get(end - 1) == '\r') {
+                len--;
+            }
+            lines[k] = new byte[len];
+            for (int j = 0; j < len; j++) {
+                lines[k][j] = map.get(start + j);
+            }
+            start = end + 1;
+        }
+
+        String results[] = verify ? verify(lines) : hash(lines);
+        StringBuilder rs = new StringBuilder();
+        for (String r : results) {
+            rs.append(r).append('\n');
+        }
+        return rs.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Hash lines of passwords, a group of BCryptLanes.LANES at a time
+     */
+    private String[] hash(byte lines[][]) {
+        BCryptLanes lanes = BCryptLanes.current();
+        SaltGenerator g = SaltGenerator.current();
+        String hashes[] = new String[lines.length];
+
+        for (int from = 0; from < lines.length; from += BCryptLanes.LANES) {
+            int n = Math.min(BCryptLanes.LANES, lines.length - from);
+            byte pw[][] = new byte[n][];
+            String salts[] = new String[n];
+            String group[] = new String[n];
+            for (int k = 0; k < n; k++) {
+                pw[k] = lines[from + k];
+                salts[k] = g.gensalt(prefix, log_rounds);
+            }
+            lanes.hash(pw, salts, group);
+            System.arraycopy(group, 0, hashes, from, n);
+        }
+        return hashes;
+    }
+
+    /**
+     * Check lines of password:hash pairs, a group of BCryptLanes.LANES
+     * well-formed pairs at a time
+     */
+    private String[] verify(byte lines[][]) {
+        BCryptLanes lanes = BCryptLanes.current();
+        String results[] = new String[lines.length];
+        byte pw[][] = new byte[BCryptLanes.LANES][];
+        BCryptHash hashed[] = new BCryptHash[BCryptLanes.LANES];
+        int index[] = new int[BCryptLanes.LANES];
+        int n = 0;
+
+        for (int i = 0; i <= lines.length; i++) {
+            if (i < lines.length) {
+                byte line[] = lines[i];
+                int colon = line.length - 1;
+                while (colon >= 0 && line[colon] != ':') {
+                    colon--;
+                }
+                try {
+                    if (colon < 0) {
+                        throw new IllegalArgumentException("No hash");
+                    }
+                    hashed[n] = BCryptHash.parse(new String(line, colon + 1,
+                                line.length - colon - 1,
+                                StandardCharsets.UTF_8));
+                } catch (IllegalArgumentException iae) {
+                    results[i] = "malformed";
+                    failed.incrementAndGet();
+                    BCryptEvents.endVerify(BCryptEvents.beginVerify(),
+                            (char) 0, 0, "malformed");
+                    BCryptMetrics m = BCrypt.getMetrics();
+                    if (m != null) {
+                        m.malformed();
+                    }
+                    continue;
+                }
+                pw[n] = new byte[colon];
+                System.arraycopy(line, 0, pw[n], 0, colon);
+                index[n++] = i;
+            }
+            if (n == BCryptLanes.LANES || i == lines.length && n > 0) {
+                byte group_pw[][] = new byte[n][];
+                BCryptHash group_hashed[] = new BCryptHash[n];
+                boolean matched[] = new boolean[n];
+                boolean malformed[] = new boolean[n];
+                System.arraycopy(pw, 0, group_pw, 0, n);
+                System.arraycopy(hashed, 0, group_hashed, 0, n);
+                lanes.verifyEach(group_pw, group_hashed, matched, malformed);
+                for (int k = 0; k < n; k++) {
+                    results[index[k]] = malformed[k] ? "malformed" :
+                        matched[k] ? "match" : "mismatch";
+                    if (!matched[k]) {
+                        failed.incrementAndGet();
+                    }
+                }
+                n = 0;
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,49 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+/**
+ * BCryptVector runs the expensive loop of many hashes at once on the
+ * Vector API. This is the version for runtimes without it; the
+ * multi-release jar carries a Java 21 version that uses
+ * jdk.incubator.vector when that module has been added to the runtime.
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+final class BCryptVector {
+    private BCryptVector() {
+    }
+
+    /**
+     * @return	the number of hashes computed together, or 0 if the
+     * Vector API is not available
+     */
+    static int lanes() {
+        return 0;
+    }
+
+    /**
+     * Run the expensive loop of crypt_raw on every engine in lockstep.
+     * BCryptLanes only calls this when lanes() is not 0, so this
+     * version is never reached.
+     * @param engines	one engine per lane, set up by eks_setup
+     * @param pw_words	the password words of each lane, as returned by
+     * eks_setup
+     * @param log_rounds	the binary logarithm of the number of rounds
+     */
+    static void run(BCrypt engines[], int pw_words[][], int log_rounds) {
+        throw new AssertionError("BCryptVector.run without lanes");
+    }
+}
@@ -0,0 +1,360 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * FailedAttemptTracker counts failed verifications per identifier (a
+ * user name, an account id, a client address) and imposes an
+ * exponentially growing penalty window once an identifier has used up
+ * its free attempts. While an identifier is in its penalty window,
+ * checkpw returns VerifyResult.THROTTLED without spending any CPU on
+ * hashing, so a brute-force attack against one account cannot keep a
+ * server busy.
+ * <p>
+ * The tracker is a fixed-size table, so its memory use is bounded no
+ * matter how many identifiers are tried. Each identifier maps to a
+ * bucket of four slots, chosen by SipHash-2-4 of the identifier with a
+ * per-instance random key, so that an attacker cannot pick identifiers
+ * that share a bucket as they could with String.hashCode. A new
+ * identifier takes an empty or forgotten slot of its bucket, or else
+ * the oldest slot holding a single failure; an identifier with more
+ * failures, or in a penalty window, is never replaced. Failures for
+ * other identifiers therefore cannot reset the count of one under
+ * attack once it has failed twice, and before that only by filling
+ * every slot of its bucket between two of its failures. Slots are
+ * updated with compare-and-set and no locks are taken.
+ * <p>
+ * <code>
+ * FailedAttemptTracker tracker = new FailedAttemptTracker(1 &lt;&lt; 20, 5,<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;1, 900, TimeUnit.SECONDS);<br />
+ * switch (tracker.checkpw(user_name, candidate_password, stored_hash)) { ... }<br />
+ * </code>
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class FailedAttemptTracker {
+    // Slots in each bucket
+    private static final int WAYS = 4;
+
+    private final AtomicReferenceArray<Slot> slots;
+    private final int mask;
+    // SipHash key for choosing slots
+    private final long key0, key1;
+    private final int free_attempts;
+    private final long base_penalty_nanos;
+    private final long max_penalty_nanos;
+
+    /**
+     * Create a failed attempt tracker
+     * @param max_tracked	the number of identifiers that can be
+     * tracked at once, rounded up to a power of two
+     * @param free_attempts	the number of failures allowed before
+     * penalties begin
+     * @param base_penalty	the first penalty window, which doubles
+     * with each further failure
+     * @param max_penalty	the longest penalty window; failures are
+     * also forgotten once this long has passed since the last one
+     * @param unit	the unit of base_penalty and max_penalty
+     * @exception IllegalArgumentException if a parameter is invalid
+     */
+    public FailedAttemptTracker(int max_tracked, int free_attempts,
+            long base_penalty, long max_penalty, TimeUnit unit)
+            throws IllegalArgumentException {
+        int size;
+
+        if (max_tracked <= 0 || max_tracked > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid max_tracked");
+        }
+        if (free_attempts < 0) {
+            throw new IllegalArgumentException("Invalid free_attempts");
+        }
+        if (base_penalty <= 0 || max_penalty < base_penalty) {
+            throw new IllegalArgumentException("Invalid penalty");
+        }
+        for (size = WAYS; size < max_tracked; size <<= 1)
+            ;
+        this.slots = new AtomicReferenceArray<Slot>(size);
+        this.mask = size - 1;
+        SecureRandom random = new SecureRandom();
+        this.key0 = random.nextLong();
+        this.key1 = random.nextLong();
+        this.free_attempts = free_attempts;
+        this.base_penalty_nanos = unit.toNanos(base_penalty);
+        this.max_penalty_nanos = unit.toNanos(max_penalty);
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * one, unless the identifier is being penalised for recent failures
+     * @param id	the identifier the attempt is made for
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	MATCH or MISMATCH, or THROTTLED if no verification
+     * was attempted
+     * @exception IllegalArgumentException if hashed is malformed
+     */
+    public VerifyResult checkpw(String id, String plaintext, String hashed)
+            throws IllegalArgumentException {
+        if (isThrottled(id)) {
+            return VerifyResult.THROTTLED;
+        }
+        return record(id, BCrypt.checkpw(plaintext, hashed));
+    }
+
+    /**
+     * Check that a plaintext byte[] password matches a previously
+     * hashed one, unless the identifier is being penalised for recent
+     * failures
+     * @param id	the identifier the attempt is made for
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	MATCH or MISMATCH, or THROTTLED if no verification
+     * was attempted
+     * @exception IllegalArgumentException if hashed is malformed
+     */
+    public VerifyResult checkpw(String id, byte plaintext[], String hashed)
+            throws IllegalArgumentException {
+        if (isThrottled(id)) {
+            return VerifyResult.THROTTLED;
+        }
+        return record(id, BCrypt.checkpw(plaintext, hashed));
+    }
+
+    private VerifyResult record(String id, boolean matched) {
+        if (matched) {
+            recordSuccess(id);
+            return VerifyResult.MATCH;
+        }
+        recordFailure(id);
+        return VerifyResult.MISMATCH;
+    }
+
+    /**
+     * @param id	the identifier to check
+     * @return	true if the identifier is in a penalty window
+     */
+    public boolean isThrottled(String id) {
+        int i = find(bucket(id), id);
+        Slot s = i < 0 ? null : slots.get(i);
+        return s != null && s.id.equals(id) && s.penalised(System.nanoTime());
+    }
+
+    /**
+     * @param id	the identifier to check
+     * @return	the number of recent failures tracked for the identifier
+     */
+    public int getFailures(String id) {
+        int i = find(bucket(id), id);
+        Slot s = i < 0 ? null : slots.get(i);
+        if (s == null || !s.id.equals(id) || s.forgotten(System.nanoTime())) {
+            return 0;
+        }
+        return s.failures;
+    }
+
+    /**
+     * Record a failed attempt, starting or extending a penalty window
+     * once the free attempts are used up
+     * @param id	the identifier the attempt was made for
+     */
+    public void recordFailure(String id) {
+        int b = bucket(id);
+
+        for (;;) {
+            long now = System.nanoTime();
+            int i = find(b, id);
+            int failures = 1;
+            Slot s;
+
+            if (i >= 0) {
+                s = slots.get(i);
+                if (s == null || !s.id.equals(id)) {
+                    continue;
+                }
+                if (!s.forgotten(now)) {
+                    failures = s.failures == Integer.MAX_VALUE ?
+                        s.failures : s.failures + 1;
+                }
+            } else {
+                i = victim(b, now);
+                if (i < 0) {
+                    // Keep tracking the identifiers already counted
+                    return;
+                }
+                s = slots.get(i);
+            }
+            if (slots.compareAndSet(i, s,
+                        new Slot(id, failures, now, now + penalty(failures)))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Record a successful attempt, clearing the identifier's failures
+     * @param id	the identifier the attempt was made for
+     */
+    public void recordSuccess(String id) {
+        int b = bucket(id);
+        int i;
+        Slot s;
+
+        do {
+            i = find(b, id);
+            if (i < 0) {
+                return;
+            }
+            s = slots.get(i);
+        } while (s == null || !s.id.equals(id) ||
+                !slots.compareAndSet(i, s, null));
+    }
+
+    /**
+     * @param b	the first slot of the identifier's bucket
+     * @param id	the identifier
+     * @return	the index of the slot holding the identifier, or -1 if
+     * it is not tracked
+     */
+    private int find(int b, String id) {
+        for (int i = b; i < b + WAYS; i++) {
+            Slot s = slots.get(i);
+            if (s != null && s.id.equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Choose the slot of a bucket to give to a new identifier: an empty
+     * or forgotten slot, or else the oldest slot holding a single
+     * failure outside a penalty window
+     * @param b	the first slot of the bucket
+     * @param now	the current System.nanoTime()
+     * @return	the index of the slot, or -1 if no slot may be replaced
+     */
+    private int victim(int b, long now) {
+        int oldest = -1;
+        long oldest_failure = 0;
+
+        for (int i = b; i < b + WAYS; i++) {
+            Slot s = slots.get(i);
+            if (s == null || s.forgotten(now)) {
+                return i;
+            }
+            if (s.failures > 1 || s.penalised(now)) {
+                continue;
+            }
+            if (oldest < 0 || s.last_failure - oldest_failure < 0) {
+                oldest = i;
+                oldest_failure = s.last_failure;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * @param failures	the number of recent failures
+     * @return	the penalty window for that many failures, in nanoseconds
+     */
+    private long penalty(int failures) {
+        int excess = failures - free_attempts;
+
+        if (excess <= 0) {
+            return 0;
+        }
+        if (excess > 62 ||
+                base_penalty_nanos > (max_penalty_nanos >> (excess - 1))) {
+            return max_penalty_nanos;
+        }
+        return base_penalty_nanos << (excess - 1);
+    }
+
+    /**
+     * Choose the bucket for an identifier with SipHash-2-4, keyed with
+     * this tracker's random key. The identifier's chars are taken four
+     * to a 64-bit word, and the last word holds its length in chars.
+     * @param id	the identifier
+     * @return	the index of the first slot of its bucket
+     */
+    int bucket(String id) {
+        long v0 = key0 ^ 0x736f6d6570736575L;
+        long v1 = key1 ^ 0x646f72616e646f6dL;
+        long v2 = key0 ^ 0x6c7967656e657261L;
+        long v3 = key1 ^ 0x7465646279746573L;
+        int n = id.length();
+        long m, h;
+
+        for (int i = 0; i <= n; i += 4) {
+            if (i + 4 <= n) {
+                m = id.charAt(i) | (long) id.charAt(i + 1) << 16 |
+                    (long) id.charAt(i + 2) << 32 |
+                    (long) id.charAt(i + 3) << 48;
+            } else {
+                m = (long) n << 48;
+                for (int j = i; j < n; j++) {
+                    m |= (long) id.charAt(j) << 16 * (j - i);
+                }
+            }
+            v3 ^= m;
+            for (int r = 0; r < 2; r++) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0;
+                v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2;
+                v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+        }
+        v2 ^= 0xff;
+        for (int r = 0; r < 4; r++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0;
+            v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2;
+            v2 = Long.rotateLeft(v2, 32);
+        }
+        h = v0 ^ v1 ^ v2 ^ v3;
+        return (int) (h ^ (h >>> 32)) & mask & -WAYS;
+    }
+
+    private final class Slot {
+        final String id;
+        final int failures;
+        final long last_failure;
+        final long penalty_until;
+
+        Slot(String id, int failures, long last_failure, long penalty_until) {
+            this.id = id;
+            this.failures = failures;
+            this.last_failure = last_failure;
+            this.penalty_until = penalty_until;
+        }
+
+        boolean penalised(long now) {
+            return now - penalty_until < 0;
+        }
+
+        boolean forgotten(long now) {
+            return now - last_failure > max_penalty_nanos && !penalised(now);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+/**
+ * RehashPolicy describes the hashes an application currently wants to
+ * store: a preferred version prefix and a range of acceptable cost
+ * factors. It can tell, without any hashing, whether a stored hash is
+ * outdated, and it can upgrade an outdated hash on a successful login,
+ * when the plaintext password is at hand:
+ * <p>
+ * <code>
+ * RehashPolicy policy = new RehashPolicy("$2b", 12, 14);<br />
+ * String upgraded = policy.verifyAndUpgrade(candidate_password, stored_hash);<br />
+ * if (upgraded == null)<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;System.out.println("It does not match");<br />
+ * else if (!upgraded.equals(stored_hash))<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;store(upgraded);<br />
+ * </code>
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class RehashPolicy {
+    private final String prefix;
+    private final char minor;
+    private final int min_log_rounds;
+    private final int max_log_rounds;
+
+    /**
+     * Create a rehash policy
+     * @param prefix	the preferred prefix, "$2a", "$2b" or "$2y"
+     * @param min_log_rounds	the lowest acceptable log2 of the
+     * number of rounds
+     * @param max_log_rounds	the highest acceptable log2 of the
+     * number of rounds
+     * @exception IllegalArgumentException if prefix or the rounds are
+     * invalid
+     */
+    public RehashPolicy(String prefix, int min_log_rounds, int max_log_rounds)
+            throws IllegalArgumentException {
+        if (prefix.length() != 3 || !prefix.startsWith("$2") ||
+                (prefix.charAt(2) != 'a' && prefix.charAt(2) != 'y') &&
+                 prefix.charAt(2) != 'b') {
+            throw new IllegalArgumentException("Invalid prefix");
+        }
+        if (min_log_rounds < 4 || max_log_rounds > 30 ||
+                min_log_rounds > max_log_rounds) {
+            throw new IllegalArgumentException("Invalid log_rounds");
+        }
+        this.prefix = prefix;
+        this.minor = prefix.charAt(2);
+        this.min_log_rounds = min_log_rounds;
+        this.max_log_rounds = max_log_rounds;
+    }
+
+    /**
+     * Check whether a stored hash should be replaced because its
+     * version or cost is outside this policy. No hashing is done.
+     * @param hashed	the previously-hashed password
+     * @return	true if the hash is outdated, or can match no password
+     * @exception IllegalArgumentException if hashed does not start
+     * with a valid version, cost and salt
+     */
+    public boolean needsRehash(String hashed) throws IllegalArgumentException {
+        BCryptHash h = BCryptHash.parseStored(hashed);
+
+        return h == null || needsRehash(h);
+    }
+
+    /**
+     * Check whether a stored hash should be replaced because its
+     * version or cost is outside this policy. No hashing is done.
+     * @param hashed	the previously-hashed password
+     * @return	true if the hash is outdated
+     */
+    public boolean needsRehash(BCryptHash hashed) {
+        return hashed.minor != minor ||
+            hashed.log_rounds < min_log_rounds ||
+            hashed.log_rounds > max_log_rounds;
+    }
+
+    /**
+     * Check a plaintext password against a stored hash and, if it
+     * matches but the hash is outdated, hash it again under this policy
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	null if the password does not match; otherwise hashed
+     * itself if it is up to date, or a new hash to store in its place
+     * @exception IllegalArgumentException if hashed does not start
+     * with a valid version, cost and salt
+     */
+    public String verifyAndUpgrade(String plaintext, String hashed)
+            throws IllegalArgumentException {
+        BCryptHash h = BCryptHash.parseStored(hashed);
+
+        if (h == null || !BCrypt.checkpw(plaintext, h)) {
+            return null;
+        }
+        if (!needsRehash(h)) {
+            return hashed;
+        }
+        return BCrypt.hashpw(plaintext, BCrypt.gensalt(prefix, upgradedLogRounds(h)));
+    }
+
+    /**
+     * Check a plaintext byte[] password against a stored hash and, if
+     * it matches but the hash is outdated, hash it again under this
+     * policy
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	null if the password does not match; otherwise hashed
+     * itself if it is up to date, or a new hash to store in its place
+     * @exception IllegalArgumentException if hashed does not start
+     * with a valid version, cost and salt
+     */
+    public String verifyAndUpgrade(byte plaintext[], String hashed)
+            throws IllegalArgumentException {
+        BCryptHash h = BCryptHash.parseStored(hashed);
+
+        if (h == null || !BCrypt.checkpw(plaintext, h)) {
+            return null;
+        }
+        if (!needsRehash(h)) {
+            return hashed;
+        }
+        return BCrypt.hashpw(plaintext, BCrypt.gensalt(prefix, upgradedLogRounds(h)));
+    }
+
+    /**
+     * Keep the cost of an outdated hash if it is acceptable, otherwise
+     * move it to the nearest end of the acceptable range
+     */
+    private int upgradedLogRounds(BCryptHash hashed) {
+        return Math.max(min_log_rounds,
+                Math.min(max_log_rounds, hashed.log_rounds));
+    }
+
+    /**
+     * @return	the preferred prefix
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return	the lowest acceptable log2 of the number of rounds
+     */
+    public int getMinLogRounds() {
+        return min_log_rounds;
+    }
+
+    /**
+     * @return	the highest acceptable log2 of the number of rounds
+     */
+    public int getMaxLogRounds() {
+        return max_log_rounds;
+    }
+}
@@ -0,0 +1,124 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * SaltGenerator generates bcrypt salts quickly. Rather than creating a
+ * SecureRandom per salt and asking it for 16 bytes at a time, each
+ * generator owns a SecureRandom, draws random bytes for many salts in
+ * one call and encodes them in one pass. Handing out a salt is then
+ * just a copy of already encoded characters.
+ * <p>
+ * A generator is not thread-safe. BCrypt.gensalt(int) and
+ * BCrypt.gensalt(String, int) use a per-thread generator, obtained with
+ * SaltGenerator.current(), so salt generation scales with the number of
+ * threads instead of contending on one source of randomness.
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public final class SaltGenerator {
+    // Number of salts drawn from the SecureRandom at once
+    private static final int PREFETCH_SALTS = 64;
+
+    private static final ThreadLocal<SaltGenerator> generators =
+        new ThreadLocal<SaltGenerator>() {
+            @Override
+            protected SaltGenerator initialValue() {
+                return new SaltGenerator();
+            }
+        };
+
+    private final SecureRandom random;
+    private final byte rnd[] = new byte[PREFETCH_SALTS * BCryptHash.SALT_LEN];
+    private final char encoded[] =
+        new char[PREFETCH_SALTS * BCryptHash.ENCODED_SALT_LEN];
+    private final char rs[] = new char[BCryptHash.SALT_STRING_LEN];
+    private int next = PREFETCH_SALTS;
+
+    /**
+     * Create a salt generator with its own SecureRandom
+     */
+    public SaltGenerator() {
+        this(new SecureRandom());
+    }
+
+    /**
+     * Create a salt generator drawing from the given SecureRandom
+     * @param random	an instance of SecureRandom to use
+     */
+    public SaltGenerator(SecureRandom random) {
+        this.random = random;
+    }
+
+    /**
+     * @return	the salt generator for the current thread
+     */
+    public static SaltGenerator current() {
+        return generators.get();
+    }
+
+    /**
+     * Generate a salt for use with the BCrypt.hashpw() method
+     * @param prefix		the prefix value (default $2y)
+     * @param log_rounds	the log2 of the number of rounds of
+     * hashing to apply - the work factor therefore increases as
+     * 2**log_rounds.
+     * @return	an encoded salt value
+     * @exception IllegalArgumentException if prefix or log_rounds is invalid
+     */
+    public String gensalt(String prefix, int log_rounds)
+            throws IllegalArgumentException {
+        Object event = BCryptEvents.beginGensalt();
+        char minor = BCrypt.checkGensalt(prefix, log_rounds);
+        int off = BCryptHash.formatHeader(minor, log_rounds, rs);
+
+        if (next == PREFETCH_SALTS) {
+            refill();
+        }
+        System.arraycopy(encoded, next++ * BCryptHash.ENCODED_SALT_LEN,
+                rs, off, BCryptHash.ENCODED_SALT_LEN);
+        BCryptEvents.endGensalt(event, minor, log_rounds);
+        return new String(rs, 0, off + BCryptHash.ENCODED_SALT_LEN);
+    }
+
+    /**
+     * Generate a salt for use with the BCrypt.hashpw() method
+     * @param log_rounds	the log2 of the number of rounds of
+     * hashing to apply - the work factor therefore increases as
+     * 2**log_rounds.
+     * @return	an encoded salt value
+     * @exception IllegalArgumentException if log_rounds is invalid
+     */
+    public String gensalt(int log_rounds) throws IllegalArgumentException {
+        return gensalt("$2y", log_rounds);
+    }
+
+    /**
+     * Draw and encode the next block of salts
+     */
+    private void refill() {
+        random.nextBytes(rnd);
+        for (int i = 0; i < PREFETCH_SALTS; i++) {
+            BCryptBase64.encode(rnd, i * BCryptHash.SALT_LEN,
+                    BCryptHash.SALT_LEN, encoded,
+                    i * BCryptHash.ENCODED_SALT_LEN);
+        }
+        Arrays.fill(rnd, (byte) 0);
+        next = 0;
+    }
+}
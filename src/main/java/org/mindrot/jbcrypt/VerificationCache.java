@@ -0,0 +1,208 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * VerificationCache remembers recent successful verifications, so that
+ * a client presenting the same credentials many times a second (for
+ * example with HTTP Basic authentication) costs a keyed digest rather
+ * than a full bcrypt hash each time.
+ * <p>
+ * The cache never holds passwords. For each stored hash it keeps an
+ * HMAC-SHA256 of the hash and the password that matched it, under a
+ * random key that never leaves the process. Entries expire after a
+ * fixed time, the least recently used entries are evicted beyond a
+ * maximum size, and an entry can be dropped explicitly, for example
+ * when the password is changed. Failed verifications are never
+ * cached.
+ * <p>
+ * <code>
+ * VerificationCache cache = new VerificationCache(10000, 30, TimeUnit.SECONDS);<br />
+ * if (cache.checkpw(candidate_password, stored_hash))<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;System.out.println("It matches");<br />
+ * </code>
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class VerificationCache {
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int KEY_LEN = 32;
+
+    private final SecretKeySpec key;
+    private final long ttl_nanos;
+    private final Map<String, Cached> entries;
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException gse) {
+                throw new AssertionError(MAC_ALGORITHM + " is not supported");
+            }
+        }
+    };
+
+    /**
+     * Create a verification cache
+     * @param max_entries	the maximum number of hashes remembered
+     * @param ttl	how long a successful verification is remembered
+     * @param unit	the unit of ttl
+     * @exception IllegalArgumentException if max_entries or ttl is
+     * not positive
+     */
+    public VerificationCache(final int max_entries, long ttl, TimeUnit unit)
+            throws IllegalArgumentException {
+        byte rnd[] = new byte[KEY_LEN];
+
+        if (max_entries <= 0) {
+            throw new IllegalArgumentException("Invalid max_entries");
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("Invalid ttl");
+        }
+        new SecureRandom().nextBytes(rnd);
+        this.key = new SecretKeySpec(rnd, MAC_ALGORITHM);
+        Arrays.fill(rnd, (byte) 0);
+        this.ttl_nanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > max_entries;
+            }
+        };
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * one, answering from the cache if it matched recently
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalArgumentException if hashed is malformed
+     */
+    public boolean checkpw(String plaintext, String hashed)
+            throws IllegalArgumentException {
+        byte plaintextb[] = plaintext.getBytes(StandardCharsets.UTF_8);
+        try {
+            return checkpw(plaintextb, hashed);
+        } finally {
+            Arrays.fill(plaintextb, (byte) 0);
+        }
+    }
+
+    /**
+     * Check that a plaintext byte[] password matches a previously
+     * hashed one, answering from the cache if it matched recently
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	true if the passwords match, false otherwise
+     * @exception IllegalArgumentException if hashed is malformed
+     */
+    public boolean checkpw(byte plaintext[], String hashed)
+            throws IllegalArgumentException {
+        byte mac[] = mac(plaintext, hashed);
+        long now = System.nanoTime();
+        Cached e;
+
+        synchronized (entries) {
+            e = entries.get(hashed);
+            if (e != null && now - e.expires >= 0) {
+                entries.remove(hashed);
+                e = null;
+            }
+        }
+        if (e != null && MessageDigest.isEqual(e.mac, mac)) {
+            return true;
+        }
+
+        if (!BCrypt.checkpw(plaintext, hashed)) {
+            return false;
+        }
+        synchronized (entries) {
+            entries.put(hashed, new Cached(mac, System.nanoTime() + ttl_nanos));
+        }
+        return true;
+    }
+
+    /**
+     * Forget any successful verification of a hash, for example
+     * because the password was changed or the account locked
+     * @param hashed	the previously-hashed password
+     */
+    public void invalidate(String hashed) {
+        synchronized (entries) {
+            entries.remove(hashed);
+        }
+    }
+
+    /**
+     * Forget all successful verifications
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return	the number of hashes currently remembered, including
+     * any that have expired but not yet been evicted
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Compute the keyed digest of a hash and a password. The hash comes
+     * first and is NUL-terminated, so the encoding is unambiguous.
+     */
+    private byte[] mac(byte plaintext[], String hashed) {
+        Mac mac = macs.get();
+        for (int i = 0; i < hashed.length(); i++) {
+            mac.update((byte) hashed.charAt(i));
+        }
+        mac.update((byte) 0);
+        mac.update(plaintext);
+        return mac.doFinal();
+    }
+
+    private static final class Cached {
+        final byte mac[];
+        final long expires;
+
+        Cached(byte mac[], long expires) {
+            this.mac = mac;
+            this.expires = expires;
+        }
+    }
+}
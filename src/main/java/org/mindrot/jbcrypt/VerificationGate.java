@@ -0,0 +1,165 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * VerificationGate puts admission control in front of BCrypt.checkpw,
+ * so that a burst of verifications (for example during a credential
+ * stuffing attack) degrades predictably instead of exhausting CPU and
+ * memory.
+ * <p>
+ * At most max_concurrent verifications run at once. Up to max_queued
+ * further callers wait, each for at most max_wait, for a slot to become
+ * free. Callers beyond that, and callers whose wait expires, receive
+ * VerifyResult.REJECTED immediately without any hashing being done.
+ * <p>
+ * <code>
+ * VerificationGate gate = new VerificationGate(8, 64, 200, TimeUnit.MILLISECONDS);<br />
+ * switch (gate.checkpw(candidate_password, stored_hash)) { ... }<br />
+ * </code>
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class VerificationGate {
+    private final int max_concurrent;
+    private final int max_queued;
+    private final long max_wait_nanos;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Create a verification gate
+     * @param max_concurrent	the maximum number of verifications
+     * running at once
+     * @param max_queued	the maximum number of callers waiting for
+     * a verification slot
+     * @param max_wait	the longest a caller waits for a slot
+     * @param unit	the unit of max_wait
+     * @exception IllegalArgumentException if a limit is invalid
+     */
+    public VerificationGate(int max_concurrent, int max_queued,
+            long max_wait, TimeUnit unit) throws IllegalArgumentException {
+        if (max_concurrent <= 0) {
+            throw new IllegalArgumentException("Invalid max_concurrent");
+        }
+        if (max_queued < 0) {
+            throw new IllegalArgumentException("Invalid max_queued");
+        }
+        if (max_wait < 0) {
+            throw new IllegalArgumentException("Invalid max_wait");
+        }
+        this.max_concurrent = max_concurrent;
+        this.max_queued = max_queued;
+        this.max_wait_nanos = unit.toNanos(max_wait);
+        this.permits = new Semaphore(max_concurrent, true);
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * one, unless the gate is saturated
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	MATCH or MISMATCH, or REJECTED if no verification
+     * slot became available in time
+     */
+    public VerifyResult checkpw(String plaintext, String hashed) {
+        if (!admit()) {
+            return VerifyResult.REJECTED;
+        }
+        try {
+            return BCrypt.checkpw(plaintext, hashed) ?
+                VerifyResult.MATCH : VerifyResult.MISMATCH;
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Check that a plaintext byte[] password matches a previously
+     * hashed one, unless the gate is saturated
+     * @param plaintext	the plaintext password to verify
+     * @param hashed	the previously-hashed password
+     * @return	MATCH or MISMATCH, or REJECTED if no verification
+     * slot became available in time
+     */
+    public VerifyResult checkpw(byte plaintext[], String hashed) {
+        if (!admit()) {
+            return VerifyResult.REJECTED;
+        }
+        try {
+            return BCrypt.checkpw(plaintext, hashed) ?
+                VerifyResult.MATCH : VerifyResult.MISMATCH;
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Acquire a verification slot, waiting in the bounded queue if
+     * necessary
+     * @return	true if a slot was acquired and must be released
+     */
+    private boolean admit() {
+        boolean acquired = false, counted = false;
+
+        try {
+            if (permits.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            counted = true;
+            if (queued.incrementAndGet() <= max_queued) {
+                acquired = permits.tryAcquire(max_wait_nanos,
+                        TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        // The fast path can be interrupted before the caller is counted
+        if (counted) {
+            queued.decrementAndGet();
+        }
+        if (!acquired) {
+            rejected.incrementAndGet();
+        }
+        return acquired;
+    }
+
+    /**
+     * @return	the number of verifications currently running
+     */
+    public int getActiveCount() {
+        return max_concurrent - permits.availablePermits();
+    }
+
+    /**
+     * @return	the number of callers currently waiting for a slot
+     */
+    public int getQueuedCount() {
+        return Math.max(0, Math.min(queued.get(), max_queued));
+    }
+
+    /**
+     * @return	the total number of verifications rejected so far
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
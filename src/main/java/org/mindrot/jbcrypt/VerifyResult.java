@@ -0,0 +1,41 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+/**
+ * The outcome of a guarded password verification
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+public enum VerifyResult {
+    /** The password matches the hash */
+    MATCH,
+    /** The password does not match the hash */
+    MISMATCH,
+    /** The verification was refused without hashing, due to overload */
+    REJECTED,
+    /**
+     * The verification was refused without hashing, because of recent
+     * failed attempts for the same identifier
+     */
+    THROTTLED;
+
+    /**
+     * @return	true iff this result is MATCH
+     */
+    public boolean matched() {
+        return this == MATCH;
+    }
+}
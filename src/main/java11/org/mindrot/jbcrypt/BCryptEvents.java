@@ -0,0 +1,240 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * BCryptEvents reports hashes, verifications and salt generation to
+ * Java Flight Recorder. This is the Java 11 version. JFR records the
+ * start time, duration and thread of each event; the events add the
+ * variant, cost and outcome. When an event type is disabled, which it
+ * is unless a recording has enabled it, begin returns null and nothing
+ * is allocated.
+ * <p>
+ * jdk.jfr is an optional module, which a runtime image made with jlink
+ * may leave out. The JFR classes are only referred to from the nested
+ * Jfr class, which is not loaded unless the module is present, and
+ * otherwise begin always returns null.
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+final class BCryptEvents {
+    private static final boolean AVAILABLE =
+        ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+    private BCryptEvents() {
+    }
+
+    /**
+     * @param minor	the minor version, or 0 for "$2$"
+     * @return	the variant as written in a hash, for example "$2b"
+     */
+    private static String variant(char minor) {
+        switch (minor) {
+        case 'a':
+            return "$2a";
+        case 'b':
+            return "$2b";
+        case 'x':
+            return "$2x";
+        case 'y':
+            return "$2y";
+        default:
+            return "$2";
+        }
+    }
+
+    /**
+     * @return	an event to pass to endHash, or null
+     */
+    static Object beginHash() {
+        return AVAILABLE ? Jfr.beginHash() : null;
+    }
+
+    /**
+     * @param event	the value returned by beginHash
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @param outcome	"hashed" or "timeout"
+     */
+    static void endHash(Object event, char minor, int log_rounds,
+            String outcome) {
+        if (event != null) {
+            Jfr.endHash(event, minor, log_rounds, outcome);
+        }
+    }
+
+    /**
+     * @return	an event to pass to endVerify, or null
+     */
+    static Object beginVerify() {
+        return AVAILABLE ? Jfr.beginVerify() : null;
+    }
+
+    /**
+     * @param event	the value returned by beginVerify
+     * @param minor	the minor version, or 0 for "$2$"
+     * @param log_rounds	the binary logarithm of the number of rounds
+     * @param outcome	"match", "mismatch", "malformed" or "timeout"
+     */
+    static void endVerify(Object event, char minor, int log_rounds,
+            String outcome) {
+        if (event != null) {
+            Jfr.endVerify(event, minor, log_rounds, outcome);
+        }
+    }
+
+    /**
+     * @return	an event to pass to endGensalt, or null
+     */
+    static Object beginGensalt() {
+        return AVAILABLE ? Jfr.beginGensalt() : null;
+    }
+
+    /**
+     * @param event	the value returned by beginGensalt
+     * @param minor	the minor version
+     * @param log_rounds	the binary logarithm of the number of rounds
+     */
+    static void endGensalt(Object event, char minor, int log_rounds) {
+        if (event != null) {
+            Jfr.endGensalt(event, minor, log_rounds);
+        }
+    }
+
+    /**
+     * The event classes and their types. Only this class refers to
+     * jdk.jfr, so it is not loaded unless the module is present.
+     */
+    private static final class Jfr {
+        @Name("org.mindrot.jbcrypt.Hash")
+        @Label("BCrypt Hash")
+        @Category("jBCrypt")
+        @Description("A password hashed with bcrypt")
+        static final class HashEvent extends Event {
+            @Label("Variant")
+            String variant;
+
+            @Label("Cost")
+            int cost;
+
+            @Label("Outcome")
+            String outcome;
+        }
+
+        @Name("org.mindrot.jbcrypt.Verify")
+        @Label("BCrypt Verify")
+        @Category("jBCrypt")
+        @Description("A password checked against a bcrypt hash")
+        static final class VerifyEvent extends Event {
+            @Label("Variant")
+            String variant;
+
+            @Label("Cost")
+            int cost;
+
+            @Label("Outcome")
+            String outcome;
+        }
+
+        @Name("org.mindrot.jbcrypt.Gensalt")
+        @Label("BCrypt Gensalt")
+        @Category("jBCrypt")
+        @Description("A bcrypt salt generated")
+        @StackTrace(false)
+        static final class GensaltEvent extends Event {
+            @Label("Variant")
+            String variant;
+
+            @Label("Cost")
+            int cost;
+        }
+
+        private static final EventType HASH =
+            EventType.getEventType(HashEvent.class);
+        private static final EventType VERIFY =
+            EventType.getEventType(VerifyEvent.class);
+        private static final EventType GENSALT =
+            EventType.getEventType(GensaltEvent.class);
+
+        static Object beginHash() {
+            if (!HASH.isEnabled()) {
+                return null;
+            }
+            HashEvent e = new HashEvent();
+            e.begin();
+            return e;
+        }
+
+        static void endHash(Object event, char minor, int log_rounds,
+                String outcome) {
+            HashEvent e = (HashEvent) event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.variant = variant(minor);
+                e.cost = log_rounds;
+                e.outcome = outcome;
+                e.commit();
+            }
+        }
+
+        static Object beginVerify() {
+            if (!VERIFY.isEnabled()) {
+                return null;
+            }
+            VerifyEvent e = new VerifyEvent();
+            e.begin();
+            return e;
+        }
+
+        static void endVerify(Object event, char minor, int log_rounds,
+                String outcome) {
+            VerifyEvent e = (VerifyEvent) event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.variant = variant(minor);
+                e.cost = log_rounds;
+                e.outcome = outcome;
+                e.commit();
+            }
+        }
+
+        static Object beginGensalt() {
+            if (!GENSALT.isEnabled()) {
+                return null;
+            }
+            GensaltEvent e = new GensaltEvent();
+            e.begin();
+            return e;
+        }
+
+        static void endGensalt(Object event, char minor, int log_rounds) {
+            GensaltEvent e = (GensaltEvent) event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.variant = variant(minor);
+                e.cost = log_rounds;
+                e.commit();
+            }
+        }
+    }
+}
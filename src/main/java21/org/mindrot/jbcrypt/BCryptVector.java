@@ -0,0 +1,211 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+package org.mindrot.jbcrypt;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * BCryptVector runs the expensive loop of many hashes at once on the
+ * Vector API, one hash per vector lane: 8 lanes with AVX2, 16 with
+ * AVX-512. This is the Java 21 version of the class.
+ * <p>
+ * The tables of all lanes are interleaved, so that entry i of lane k
+ * is at i * lanes + k. The P-array updates are then plain vector loads,
+ * XORs and stores, and the four S-box lookups of each Feistel round
+ * are gathers. The result is identical to BCrypt.crypt_raw.
+ * <p>
+ * jdk.incubator.vector is an incubator module, so it is only used when
+ * the runtime was started with --add-modules jdk.incubator.vector, and
+ * can be turned off with -Dorg.mindrot.jbcrypt.vector=false. Otherwise
+ * lanes() returns 0 and the Vector API classes are never loaded.
+ *
+ * @author Damien Miller
+ * @version 0.4
+ */
+final class BCryptVector {
+    private static final int LANES = available() ? Engine.SPECIES.length() : 0;
+
+    private static final ThreadLocal<Engine> engines =
+        new ThreadLocal<Engine>() {
+            @Override
+            protected Engine initialValue() {
+                return new Engine();
+            }
+        };
+
+    private BCryptVector() {
+    }
+
+    /**
+     * @return	true if the Vector API module is present and enabled
+     */
+    private static boolean available() {
+        if (!Boolean.parseBoolean(
+                    System.getProperty("org.mindrot.jbcrypt.vector", "true"))) {
+            return false;
+        }
+        return ModuleLayer.boot().findModule("jdk.incubator.vector")
+            .isPresent() && Engine.SPECIES.length() >= 4;
+    }
+
+    /**
+     * @return	the number of hashes computed together, or 0 if the
+     * Vector API is not available
+     */
+    static int lanes() {
+        return LANES;
+    }
+
+    /**
+     * Run the expensive loop of crypt_raw on every engine in lockstep.
+     * BCryptLanes only calls this when lanes() is not 0.
+     * @param engines	one engine per lane, set up by eks_setup
+     * @param pw_words	the password words of each lane, as returned by
+     * eks_setup
+     * @param log_rounds	the binary logarithm of the number of rounds
+     */
+    static void run(BCrypt engines[], int pw_words[][], int log_rounds) {
+        if (LANES == 0) {
+            // Engine would load the Vector API classes
+            throw new AssertionError("BCryptVector.run without lanes");
+        }
+        BCryptVector.engines.get().run(engines, pw_words, log_rounds);
+    }
+
+    /**
+     * The interleaved tables of one thread. Only this class refers to
+     * the Vector API, so it is not loaded unless the module is present.
+     */
+    private static final class Engine {
+        static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+        private final int lanes = SPECIES.length();
+        private final int P[] = new int[18 * lanes];
+        private final int S[] = new int[1024 * lanes];
+        private final int pw[] = new int[18 * lanes];
+        private final int salt[] = new int[18 * lanes];
+        // Gather indices, rebuilt for every S-box lookup
+        private final int idx[] = new int[lanes];
+        // The offset of each lane in an interleaved table
+        private final IntVector lane = IntVector.zero(SPECIES).addIndex(1);
+        private final int shift = Integer.numberOfTrailingZeros(lanes);
+
+        /**
+         * Run the expensive loop of crypt_raw on every engine in
+         * lockstep, copying the tables in and out of interleaved form
+         */
+        void run(BCrypt engines[], int pw_words[][], int log_rounds) {
+            int i, k;
+            int rounds = 1 << log_rounds;
+
+            for (k = 0; k < lanes; k++) {
+                BCrypt e = engines[k];
+                for (i = 0; i < 18; i++) {
+                    P[i * lanes + k] = e.state[i];
+                    pw[i * lanes + k] = pw_words[k][i];
+                    salt[i * lanes + k] = e.salt_words[i];
+                }
+                for (i = 0; i < 1024; i++) {
+                    S[i * lanes + k] = e.state[BCrypt.S0 + i];
+                }
+            }
+
+            for (i = 0; i != rounds; i++) {
+                key(pw);
+                key(salt);
+            }
+
+            for (k = 0; k < lanes; k++) {
+                BCrypt e = engines[k];
+                for (i = 0; i < 18; i++) {
+                    e.state[i] = P[i * lanes + k];
+                }
+                for (i = 0; i < 1024; i++) {
+                    e.state[BCrypt.S0 + i] = S[i * lanes + k];
+                }
+            }
+            Arrays.fill(pw, 0);
+        }
+
+        /**
+         * Look up one S-box for every lane
+         * @param x	the bytes to look up, one per lane
+         * @param box	the S-box number
+         * @return	the S-box entries
+         */
+        private IntVector sbox(IntVector x, int box) {
+            x.lanewise(VectorOperators.LSHL, shift).add(lane).intoArray(idx, 0);
+            return IntVector.fromArray(SPECIES, S, (box << 8) * lanes, idx, 0);
+        }
+
+        /**
+         * The Blowfish round function of every lane
+         * @param x	the half blocks
+         * @return	the outputs of the round function
+         */
+        private IntVector f(IntVector x) {
+            IntVector n = sbox(x.lanewise(VectorOperators.LSHR, 24), 0);
+            n = n.add(sbox(x.lanewise(VectorOperators.LSHR, 16).and(0xff), 1));
+            n = n.lanewise(VectorOperators.XOR,
+                    sbox(x.lanewise(VectorOperators.LSHR, 8).and(0xff), 2));
+            return n.add(sbox(x.and(0xff), 3));
+        }
+
+        /**
+         * Key the Blowfish cipher of every lane, as BCrypt.key
+         * @param key	the interleaved keys
+         */
+        private void key(int key[]) {
+            int i, j;
+            IntVector l = IntVector.zero(SPECIES), r = l;
+
+            for (i = 0; i < 18 * lanes; i += lanes) {
+                IntVector.fromArray(SPECIES, P, i)
+                    .lanewise(VectorOperators.XOR,
+                            IntVector.fromArray(SPECIES, key, i))
+                    .intoArray(P, i);
+            }
+
+            for (j = 0; j < 18 + 1024; j += 2) {
+                // Encipher the block of every lane, as BCrypt.encipher
+                l = l.lanewise(VectorOperators.XOR,
+                        IntVector.fromArray(SPECIES, P, 0));
+                for (i = 1; i < 17; i += 2) {
+                    r = r.lanewise(VectorOperators.XOR, f(l))
+                        .lanewise(VectorOperators.XOR,
+                                IntVector.fromArray(SPECIES, P, i * lanes));
+                    l = l.lanewise(VectorOperators.XOR, f(r))
+                        .lanewise(VectorOperators.XOR,
+                                IntVector.fromArray(SPECIES, P, (i + 1) * lanes));
+                }
+                IntVector t = r.lanewise(VectorOperators.XOR,
+                        IntVector.fromArray(SPECIES, P, 17 * lanes));
+                r = l;
+                l = t;
+
+                if (j < 18) {
+                    l.intoArray(P, j * lanes);
+                    r.intoArray(P, (j + 1) * lanes);
+                } else {
+                    l.intoArray(S, (j - 18) * lanes);
+                    r.intoArray(S, (j - 17) * lanes);
+                }
+            }
+        }
+    }
+}
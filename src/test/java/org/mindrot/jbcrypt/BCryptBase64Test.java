@@ -0,0 +1,95 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for BCryptBase64
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class BCryptBase64Test {
+    String encoded[] = {
+        "", "..", "Oe", "OeW", "OeWm", "CCCCCCCCCCCCCCCCCCCCC.",
+        "E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW"
+    };
+
+    /**
+     * Test that every encoding round trips through all of the
+     * buffer types
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (String s : encoded) {
+            int olen = BCryptBase64.decodedLength(s.length());
+            byte b1[] = new byte[olen + 2];
+            byte b2[] = new byte[olen + 2];
+            byte b3[] = new byte[olen + 2];
+            assertEquals(olen, BCryptBase64.decode(s, 0, s.length(), b1, 1));
+            assertEquals(olen, BCryptBase64.decode(s.toCharArray(), 0,
+                    s.length(), b2, 1));
+            assertEquals(olen, BCryptBase64.decode(s.getBytes("US-ASCII"), 0,
+                    s.length(), b3, 1));
+            assertArrayEquals(b1, b2);
+            assertArrayEquals(b1, b3);
+
+            ByteBuffer bb = ByteBuffer.allocateDirect(olen);
+            assertEquals(olen, BCryptBase64.decode(
+                    ByteBuffer.wrap(s.getBytes("US-ASCII")), bb));
+            bb.flip();
+            byte b4[] = new byte[olen];
+            bb.get(b4);
+            assertArrayEquals(Arrays.copyOfRange(b1, 1, olen + 1), b4);
+
+            assertEquals(s.length(), BCryptBase64.encodedLength(olen));
+            char c[] = new char[s.length()];
+            assertEquals(s.length(), BCryptBase64.encode(b1, 1, olen, c, 0));
+            assertEquals(s, new String(c));
+            byte a[] = new byte[s.length()];
+            assertEquals(s.length(), BCryptBase64.encode(b1, 1, olen, a, 0));
+            assertEquals(s, new String(a, "US-ASCII"));
+            ByteBuffer out = ByteBuffer.allocate(s.length());
+            BCryptBase64.encode(ByteBuffer.wrap(b4), out);
+            assertEquals(s, new String(out.array(), "US-ASCII"));
+        }
+    }
+
+    /**
+     * Test that invalid characters, including characters just outside
+     * the decoding table, are rejected
+     */
+    @Test
+    public void testInvalid() {
+        String invalid[] = {
+            "Oe!", "\u0080eWm", "OeW\u0080", "￿e", "Oe$m", "OeWmO"
+        };
+        byte dst[] = new byte[8];
+        for (String s : invalid) {
+            try {
+                BCryptBase64.decode(s, 0, s.length(), dst, 0);
+                fail("expected IllegalArgumentException for " + s);
+            } catch (IllegalArgumentException iae) {
+            }
+        }
+        assertEquals(-1, BCryptBase64.char64(0x80));
+        assertEquals(-1, BCryptBase64.char64(0x80 + '.'));
+        assertEquals(0, BCryptBase64.char64('.'));
+    }
+}
@@ -0,0 +1,147 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for BCryptBatch
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class BCryptBatchTest {
+    String plaintexts[] = {
+        "", "a", "abc", "abcdefghijklmnopqrstuvwxyz", "U*U", "U*U"
+    };
+    String hashes[] = {
+        "$2a$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s.",
+        "$2a$06$m0CrhHm10qJ3lXRY.5zDGO3rS2KdeeWLuGmsfGlMfOxih58VYVfxe",
+        "$2a$06$.rCVZVOThsIa97pEDOxvGuRRgzG64bvtJ0938xuqzv18d3ZpQhstC",
+        "$2a$06$.rCVZVOThsIa97pEDOxvGuRRgzG64bvtJ0938xuqzv18d3ZpQhstC",
+        "$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW",
+        "$2a$05$CCCCCCCCCCC"
+    };
+
+    /**
+     * Test method for 'BCryptBatch.checkpw(String[], String[])'
+     */
+    @Test
+    public void testCheckpw() {
+        BitSet ok = BCryptBatch.checkpw(plaintexts, hashes);
+        assertEquals("{0, 1, 3, 4}", ok.toString());
+    }
+
+    /**
+     * Test method for 'BCryptBatch.checkpw(byte[][], String[], Executor)'
+     */
+    @Test
+    public void testCheckpwExecutor() throws Exception {
+        byte plainb[][] = new byte[plaintexts.length][];
+        for (int i = 0; i < plaintexts.length; i++) {
+            plainb[i] = plaintexts[i].getBytes("UTF-8");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            BitSet ok = BCryptBatch.checkpw(plainb, hashes, executor);
+            assertEquals("{0, 1, 3, 4}", ok.toString());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test method for 'BCryptBatch.hashpw(String[], String[])' against
+     * hashing one at a time, with batch sizes that leave partial groups
+     */
+    @Test
+    public void testHashpw() throws Exception {
+        for (int n = 1; n <= 9; n++) {
+            String passwords[] = new String[n];
+            String salts[] = new String[n];
+            for (int i = 0; i < n; i++) {
+                passwords[i] = "password " + i;
+                salts[i] = BCrypt.gensalt(i % 3 == 2 ? "$2a" : "$2b", 4 + i % 2);
+            }
+            String hashed[] = BCryptBatch.hashpw(passwords, salts);
+            for (int i = 0; i < n; i++) {
+                assertEquals(BCrypt.hashpw(passwords[i], salts[i]), hashed[i]);
+            }
+            assertEquals(n, BCryptBatch.checkpw(passwords, hashed).cardinality());
+        }
+    }
+
+    /**
+     * Test method for 'BCryptBatch.hashpw(byte[][], String[], Executor)'
+     */
+    @Test
+    public void testHashpwExecutor() throws Exception {
+        byte passwords[][] = new byte[6][];
+        String salts[] = new String[6];
+        for (int i = 0; i < 6; i++) {
+            passwords[i] = ("password " + i).getBytes("UTF-8");
+            salts[i] = BCrypt.gensalt(4);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            String hashed[] = BCryptBatch.hashpw(passwords, salts, executor);
+            for (int i = 0; i < 6; i++) {
+                assertTrue(BCrypt.checkpw(passwords[i], hashed[i]));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            BCryptBatch.hashpw(passwords, new String[] {
+                salts[0], salts[1], "$2b$04$bogus", salts[3], salts[4], salts[5]
+            });
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+        }
+    }
+
+    /**
+     * Test that a pair bcrypt cannot hash, an empty password with a
+     * "$2$" hash, only fails its own lane
+     */
+    @Test
+    public void testCheckpwUnhashable() {
+        String salt = "$2$05$CCCCCCCCCCCCCCCCCCCCC.";
+        String group_plain[] = { "", "U*U", plaintexts[3], "" };
+        String group_hashes[] = {
+            BCrypt.hashpw("x", salt), BCrypt.hashpw("U*U", salt),
+            hashes[3], hashes[0]
+        };
+        BitSet ok = BCryptBatch.checkpw(group_plain, group_hashes);
+        assertEquals("{1, 2, 3}", ok.toString());
+    }
+
+    /**
+     * Test that empty batches and mismatched lengths are handled
+     */
+    @Test
+    public void testLengths() {
+        assertTrue(BCryptBatch.checkpw(new String[0], new String[0]).isEmpty());
+        try {
+            BCryptBatch.checkpw(plaintexts, new String[1]);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+        }
+    }
+}
@@ -0,0 +1,71 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for BCryptCalibration
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class BCryptCalibrationTest {
+    /**
+     * Test that calibration is monotonic in the target, and cached
+     */
+    @Test
+    public void testCalibrate() {
+        int tiny = BCryptCalibration.calibrate(1, TimeUnit.NANOSECONDS);
+        int small = BCryptCalibration.calibrate(20, TimeUnit.MILLISECONDS);
+        int large = BCryptCalibration.calibrate(80, TimeUnit.MILLISECONDS);
+        assertEquals(4, tiny);
+        assertTrue(small >= 4 && small <= 30);
+        assertTrue(large >= small);
+
+        long start = System.nanoTime();
+        assertEquals(small, BCryptCalibration.calibrate(20, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(5));
+    }
+
+    /**
+     * Test method for 'BCrypt.gensalt(long, TimeUnit)'
+     */
+    @Test
+    public void testGensalt() {
+        int log_rounds = BCryptCalibration.calibrate(20, TimeUnit.MILLISECONDS);
+        String salt = BCrypt.gensalt(20, TimeUnit.MILLISECONDS);
+        assertEquals(log_rounds, BCryptHash.parseRounds(salt, 4));
+    }
+
+    /**
+     * Test that invalid targets are rejected
+     */
+    @Test
+    public void testInvalid() {
+        try {
+            BCryptCalibration.calibrate(0, TimeUnit.MILLISECONDS);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+        }
+        try {
+            BCryptCalibration.calibrate(1, TimeUnit.SECONDS, 1.5);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+        }
+    }
+}
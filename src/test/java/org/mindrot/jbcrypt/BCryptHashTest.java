@@ -0,0 +1,101 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for BCryptHash
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class BCryptHashTest {
+    String hashes[] = {
+        "$2a$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s.",
+        "$2x$05$/OK.fbVrR/bpIqNJ5ianF.CE5elHaaO4EbggVDjb8P19RukzXSM3e",
+        "$2y$05$/OK.fbVrR/bpIqNJ5ianF.Sa7shbm4.OzKpvFnX1pQLmQW96oUlCq",
+        "$2b$12$k42ZFHFWqBp3vWli.nIn8uYyIkbvYRvodzbfbK18SSsY.CsIQPlxO",
+        "$2$05$CCCCCCCCCCCCCCCCCCCCC.7uG0VCzI2bS7j6ymqJi9CdcdxiRTWNy"
+    };
+
+    String malformed[] = {
+        "",
+        "$2",
+        "$3a$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s.",
+        "$2c$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s.",
+        "$2a$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s",
+        "$2a$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s..",
+        "$2a$6$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s.",
+        "$2a$03$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s.",
+        "$2a$31$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s.",
+        "$2a$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s!",
+        "$2a$06$DCq7YPn5Rq63x1Lad4cllPTV4S6ytwfsfvkgY8jIucDrjc8deX1s.",
+        "$2a$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s/",
+        "$2a$06$",
+        "$2a$06$DCq7YPn5Rq63x1Lad4cll."
+    };
+
+    /**
+     * Test that parsed hashes format back to the same string
+     */
+    @Test
+    public void testParse() {
+        for (String hashed : hashes) {
+            BCryptHash h = BCryptHash.parse(hashed);
+            assertEquals(hashed, h.toString());
+            assertEquals(16, h.getSalt().length);
+            assertEquals(23, h.getDigest().length);
+            assertEquals(h, BCryptHash.parse(hashed));
+            assertEquals(h.hashCode(), BCryptHash.parse(hashed).hashCode());
+        }
+        BCryptHash h = BCryptHash.parse(hashes[3]);
+        assertEquals("$2b", h.getVersion());
+        assertEquals('b', h.getMinor());
+        assertEquals(12, h.getLogRounds());
+        assertEquals("$2", BCryptHash.parse(hashes[4]).getVersion());
+        assertFalse(h.equals(BCryptHash.parse(hashes[0])));
+    }
+
+    /**
+     * Test that malformed hashes are rejected
+     */
+    @Test
+    public void testParseMalformed() {
+        for (String hashed : malformed) {
+            try {
+                BCryptHash.parse(hashed);
+                fail("expected IllegalArgumentException for " + hashed);
+            } catch (IllegalArgumentException iae) {
+            }
+        }
+    }
+
+    /**
+     * Test method for 'BCrypt.checkpw(String, BCryptHash)'
+     */
+    @Test
+    public void testCheckpw() {
+        BCryptHash h = BCryptHash.parse(
+                "$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW");
+        assertTrue(BCrypt.checkpw("U*U", h));
+        assertFalse(BCrypt.checkpw("U*U*", h));
+        h = BCryptHash.parse(
+                "$2x$05$/OK.fbVrR/bpIqNJ5ianF.CE5elHaaO4EbggVDjb8P19RukzXSM3e");
+        assertTrue(BCrypt.checkpw(new byte[] { (byte) 0xa3 }, h));
+        assertTrue(BCrypt.checkpw(
+                new byte[] { (byte) 0xff, (byte) 0xff, (byte) 0xa3 }, h));
+    }
+}
@@ -0,0 +1,104 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for BCryptLanes
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class BCryptLanesTest {
+    String passwords[] = {
+        "", "U*U", "£££", "abcdefghijklmnopqrstuvwxyz",
+        "ÿÿ£", "0123456789012345678901234567890123456789" +
+        "0123456789012345678901234567890123456789"
+    };
+    String salts[] = {
+        "$2a$05$CCCCCCCCCCCCCCCCCCCCC.", "$2b$05$abcdefghijklmnopqrstuu",
+        "$2x$05$/OK.fbVrR/bpIqNJ5ianF.", "$2y$05$/OK.fbVrR/bpIqNJ5ianF.",
+        "$2a$05$/OK.fbVrR/bpIqNJ5ianF.", "$2$05$......................"
+    };
+
+    private byte[][] bytes(int from, int to) throws Exception {
+        byte pw[][] = new byte[to - from][];
+        for (int i = from; i < to; i++) {
+            pw[i - from] = passwords[i].getBytes("ISO-8859-1");
+        }
+        return pw;
+    }
+
+    /**
+     * Test that groups of every size give the same hashes as hashing
+     * one at a time
+     */
+    @Test
+    public void testHash() throws Exception {
+        BCryptLanes lanes = new BCryptLanes();
+        for (int from = 0; from < passwords.length; from++) {
+            for (int to = from + 1; to <= Math.min(from + BCryptLanes.LANES,
+                        passwords.length); to++) {
+                byte pw[][] = bytes(from, to);
+                String hashes[] = new String[to - from];
+                String group_salts[] = new String[to - from];
+                System.arraycopy(salts, from, group_salts, 0, to - from);
+                lanes.hash(pw, group_salts, hashes);
+                for (int k = 0; k < pw.length; k++) {
+                    assertEquals(BCrypt.hashpw(pw[k], group_salts[k]), hashes[k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test a group whose costs differ
+     */
+    @Test
+    public void testMixedCosts() throws Exception {
+        BCryptLanes lanes = new BCryptLanes();
+        byte pw[][] = bytes(0, 3);
+        String group_salts[] = {
+            "$2a$04$CCCCCCCCCCCCCCCCCCCCC.", "$2b$05$abcdefghijklmnopqrstuu",
+            "$2y$06$/OK.fbVrR/bpIqNJ5ianF."
+        };
+        String hashes[] = new String[3];
+        lanes.hash(pw, group_salts, hashes);
+        for (int k = 0; k < 3; k++) {
+            assertEquals(BCrypt.hashpw(pw[k], group_salts[k]), hashes[k]);
+        }
+    }
+
+    /**
+     * Test verifying a group
+     */
+    @Test
+    public void testVerify() throws Exception {
+        BCryptLanes lanes = new BCryptLanes();
+        byte pw[][] = bytes(0, 4);
+        BCryptHash hashed[] = new BCryptHash[4];
+        for (int k = 0; k < 4; k++) {
+            hashed[k] = BCryptHash.parse(BCrypt.hashpw(pw[k], salts[k]));
+        }
+        pw[2] = "wrong".getBytes("ISO-8859-1");
+        boolean results[] = new boolean[4];
+        lanes.verify(pw, hashed, results);
+        assertTrue(results[0]);
+        assertTrue(results[1]);
+        assertFalse(results[2]);
+        assertTrue(results[3]);
+    }
+}
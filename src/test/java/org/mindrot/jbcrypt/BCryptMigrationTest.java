@@ -0,0 +1,120 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for BCryptMigration
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class BCryptMigrationTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    String records[] = {
+        "alice:5f4dcc3b5aa765d61d8327deb882cf99",
+        "bob:e10adc3949ba59abbe56e057f20f883e",
+        "carol:d8578edf8458ce06fbc5bb76a58c5ca4",
+        "dave:x:y:25d55ad283aa400af464c76d713c07ad",
+        "0d107d09f5bbe40cade3de5c71e9e9b7",
+        "erin:",
+        "frank:7c6a180b36896a0a8c02787eeafb0e4c"
+    };
+
+    private void check(List<String> lines) {
+        assertEquals(records.length, lines.size());
+        for (int i = 0; i < records.length; i++) {
+            int colon = records[i].lastIndexOf(':');
+            String line = lines.get(i);
+            assertTrue(line.startsWith(records[i].substring(0, colon + 1)));
+            String hash = line.substring(colon + 1);
+            assertTrue(hash.startsWith("$2b$04$"));
+            assertTrue(BCrypt.checkpw(records[i].substring(colon + 1), hash));
+        }
+    }
+
+    /**
+     * Test migrating records from an iterator
+     */
+    @Test
+    public void testIterator() throws Exception {
+        StringWriter out = new StringWriter();
+        BCryptMigration m = new BCryptMigration("$2b", 4, 3);
+        assertEquals(records.length,
+                m.migrate(Arrays.asList(records).iterator(), out));
+        check(Arrays.asList(out.toString().split("\n")));
+    }
+
+    /**
+     * Test migrating a file, resuming after a simulated crash part way
+     * through
+     */
+    @Test
+    public void testResume() throws Exception {
+        Path input = folder.newFile("in.txt").toPath();
+        Path output = folder.getRoot().toPath().resolve("out.txt");
+        Path checkpoint = folder.getRoot().toPath().resolve("out.ckpt");
+        Files.write(input, Arrays.asList(records), StandardCharsets.UTF_8);
+
+        BCryptMigration m = new BCryptMigration("$2b", 4, 3);
+        assertEquals(records.length, m.migrate(input, output, checkpoint));
+        List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        check(lines);
+        assertEquals(records.length + " " + Files.size(output) + "\n",
+                new String(Files.readAllBytes(checkpoint), "US-ASCII"));
+
+        // Already done: nothing more to do
+        assertEquals(0, m.migrate(input, output, checkpoint));
+
+        // Killed after the first window, part way through the second
+        List<String> head = new ArrayList<String>(lines.subList(0, 3));
+        Files.write(output, head, StandardCharsets.UTF_8);
+        long offset = Files.size(output);
+        Files.write(output, "bob:$2b$04$tor".getBytes("US-ASCII"),
+                StandardOpenOption.APPEND);
+        Files.write(checkpoint, ("3 " + offset + "\n").getBytes("US-ASCII"));
+
+        assertEquals(records.length - 3, m.migrate(input, output, checkpoint));
+        lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        check(lines);
+        assertEquals(head, lines.subList(0, 3));
+    }
+
+    /**
+     * Test that a corrupt checkpoint is refused
+     */
+    @Test(expected = IOException.class)
+    public void testCorruptCheckpoint() throws Exception {
+        Path input = folder.newFile("in.txt").toPath();
+        Path checkpoint = folder.newFile("out.ckpt").toPath();
+        Files.write(checkpoint, "3".getBytes("US-ASCII"));
+        new BCryptMigration("$2b", 4, 3).migrate(input,
+                folder.getRoot().toPath().resolve("out.txt"), checkpoint);
+    }
+}
@@ -0,0 +1,134 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for BCryptScheduler
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class BCryptSchedulerTest {
+    /**
+     * Test that scheduled hashes and checks give the same results as
+     * BCrypt
+     */
+    @Test
+    public void testResults() throws Exception {
+        BCryptScheduler s = new BCryptScheduler(2);
+        BCryptScheduler.PriorityClass c = s.newClass("login", 1);
+        String salt = "$2a$05$CCCCCCCCCCCCCCCCCCCCC.";
+        String hashed = BCrypt.hashpw("U*U", salt);
+        assertEquals(hashed, c.hashpw("U*U", salt).get());
+        assertTrue(c.checkpw("U*U", hashed).get());
+        assertFalse(c.checkpw("U*V", hashed).get());
+        try {
+            c.checkpw("U*U", "$2a$05$short").get();
+            fail("expected IllegalArgumentException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        s.shutdown();
+        try {
+            c.hashpw("U*U", salt);
+            fail("expected RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+        }
+    }
+
+    /**
+     * Test that foreground work overtakes queued background work
+     */
+    @Test
+    public void testBackground() throws Exception {
+        BCryptScheduler s = new BCryptScheduler(1);
+        BCryptScheduler.PriorityClass bg = s.newBackgroundClass("rehash");
+        BCryptScheduler.PriorityClass fg = s.newClass("login", 1);
+        final AtomicInteger bg_done = new AtomicInteger();
+        List<CompletableFuture<String>> bg_futures =
+            new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 20; i++) {
+            bg_futures.add(bg.hashpw("bg" + i, BCrypt.gensalt(6))
+                    .whenComplete((h, e) -> bg_done.incrementAndGet()));
+        }
+        String hashed = BCrypt.hashpw("fg", BCrypt.gensalt(4));
+        int at_login = fg.checkpw("fg", hashed)
+            .thenApply(ok -> bg_done.get()).get();
+        assertTrue("background finished first: " + at_login, at_login < 2);
+        for (CompletableFuture<String> f : bg_futures) {
+            assertTrue(f.get().startsWith("$2y$06$"));
+        }
+        s.shutdown();
+    }
+
+    /**
+     * Test that busy foreground classes share a worker by weight
+     */
+    @Test
+    public void testWeights() throws Exception {
+        BCryptScheduler s = new BCryptScheduler(1);
+        BCryptScheduler.PriorityClass heavy = s.newClass("heavy", 3);
+        BCryptScheduler.PriorityClass light = s.newClass("light", 1);
+        final AtomicInteger heavy_done = new AtomicInteger();
+        String salt = BCrypt.gensalt(4);
+        List<CompletableFuture<Integer>> light_futures =
+            new ArrayList<CompletableFuture<Integer>>();
+        for (int i = 0; i < 40; i++) {
+            heavy.hashpw("h" + i, salt)
+                .whenComplete((h, e) -> heavy_done.incrementAndGet());
+            light_futures.add(light.hashpw("l" + i, salt)
+                    .thenApply(h -> heavy_done.get()));
+        }
+        // About three heavy hashes for each light one
+        int at_tenth = light_futures.get(9).get();
+        assertTrue("heavy done at 10th light: " + at_tenth,
+                at_tenth >= 20 && at_tenth <= 36);
+        s.shutdown();
+    }
+
+    /**
+     * Test that shutdownNow cancels unfinished work
+     */
+    @Test
+    public void testShutdownNow() throws Exception {
+        BCryptScheduler s = new BCryptScheduler(1);
+        BCryptScheduler.PriorityClass c = s.newClass("migrate", 1);
+        List<CompletableFuture<String>> futures =
+            new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(c.hashpw("pw" + i, BCrypt.gensalt(8)));
+        }
+        s.shutdownNow();
+        int cancelled = 0;
+        for (CompletableFuture<String> f : futures) {
+            try {
+                f.get();
+            } catch (CancellationException e) {
+                cancelled++;
+            }
+        }
+        assertTrue(cancelled >= 9);
+        assertEquals(0, c.getQueuedCount());
+    }
+}
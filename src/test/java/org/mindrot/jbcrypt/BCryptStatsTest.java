@@ -0,0 +1,140 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for BCryptStats
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class BCryptStatsTest {
+    /**
+     * Test that every value falls in a bucket whose bounds hold it
+     */
+    @Test
+    public void testBuckets() {
+        long values[] = { 0, 1, 15, 16, 17, 31, 32, 1000, 123456789L,
+            1L << 40, Long.MAX_VALUE };
+        for (long v : values) {
+            int b = BCryptStats.Histogram.bucket(v);
+            assertTrue(BCryptStats.Histogram.lowest(b) <= v);
+            if (v != Long.MAX_VALUE) {
+                assertTrue(BCryptStats.Histogram.lowest(b + 1) > v);
+            }
+        }
+        for (int b = 1; b < 960; b++) {
+            assertEquals(b, BCryptStats.Histogram.bucket(
+                        BCryptStats.Histogram.lowest(b)));
+            assertEquals(b - 1, BCryptStats.Histogram.bucket(
+                        BCryptStats.Histogram.lowest(b) - 1));
+        }
+    }
+
+    /**
+     * Test percentiles of a histogram
+     */
+    @Test
+    public void testPercentiles() {
+        BCryptStats.Histogram h = new BCryptStats.Histogram();
+        assertEquals(0, h.getValueAtPercentile(50));
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000L);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(1000000, h.getMax());
+        assertEquals(500500.0, h.getMean(), 0.001);
+        long p50 = h.getValueAtPercentile(50);
+        assertTrue(p50 >= 500000 && p50 <= 500000 + 500000 / 16);
+        assertEquals(1000000, h.getValueAtPercentile(100));
+    }
+
+    /**
+     * Test that hashes and verifications are reported to the installed
+     * listener, and nothing once it is removed
+     */
+    @Test
+    public void testMetrics() {
+        BCryptStats stats = new BCryptStats();
+        String hashed = BCrypt.hashpw("password", "$2b$04$abcdefghijklmnopqrstuu");
+
+        BCrypt.setMetrics(stats);
+        try {
+            assertSame(stats, BCrypt.getMetrics());
+            BCrypt.hashpw("password", "$2a$05$abcdefghijklmnopqrstuu");
+            assertTrue(BCrypt.checkpw("password", hashed));
+            assertFalse(BCrypt.checkpw("wrong", hashed));
+            try {
+                BCrypt.checkpw("password", "$2b$04$bogus");
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException iae) {
+            }
+        } finally {
+            BCrypt.setMetrics(null);
+        }
+        BCrypt.checkpw("password", hashed);
+
+        assertEquals(1, stats.getHashCount('a', 5));
+        assertEquals(0, stats.getHashCount('b', 4));
+        assertEquals(1, stats.getMatchCount('b', 4));
+        assertEquals(1, stats.getMismatchCount('b', 4));
+        assertEquals(1, stats.getMalformedCount());
+        assertEquals(2, stats.getVerifyLatency('b', 4).getCount());
+        assertTrue(stats.getVerifyLatency('b', 4).getMax() > 0);
+        assertNull(stats.getVerifyLatency('y', 4));
+        assertTrue(stats.toString().contains("$2a$05 hash=[n=1"));
+
+        stats.reset();
+        assertEquals(0, stats.getMatchCount('b', 4));
+        assertEquals(0, stats.getMalformedCount());
+    }
+
+    /**
+     * Test that abandoned hashes and verifications are reported as
+     * timeouts rather than not at all
+     */
+    @Test
+    public void testTimeoutMetrics() {
+        BCryptStats stats = new BCryptStats();
+        String hashed = BCrypt.hashpw("password", "$2b$04$abcdefghijklmnopqrstuu");
+
+        BCrypt.setMetrics(stats);
+        try {
+            try {
+                BCrypt.hashpw("password", "$2a$20$abcdefghijklmnopqrstuu",
+                        1, TimeUnit.MILLISECONDS);
+                fail("expected timeout");
+            } catch (BCryptTimeoutException e) {
+            }
+            try {
+                BCrypt.checkpw("password", hashed, 0, TimeUnit.SECONDS);
+                fail("expected timeout");
+            } catch (BCryptTimeoutException e) {
+            }
+        } finally {
+            BCrypt.setMetrics(null);
+        }
+
+        assertEquals(1, stats.getTimeoutCount('a', 20));
+        assertEquals(0, stats.getHashCount('a', 20));
+        assertEquals(1, stats.getTimeoutCount('b', 4));
+        assertEquals(0, stats.getMatchCount('b', 4));
+        assertTrue(stats.toString().contains("timedout=1"));
+    }
+}
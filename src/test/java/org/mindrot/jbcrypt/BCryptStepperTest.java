@@ -0,0 +1,132 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for BCryptStepper
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class BCryptStepperTest {
+    String passwords[] = {
+        "", "U*U", "£££", "abcdefghijklmnopqrstuvwxyz"
+    };
+    String salts[] = {
+        "$2a$06$CCCCCCCCCCCCCCCCCCCCC.", "$2b$05$abcdefghijklmnopqrstuu",
+        "$2x$05$/OK.fbVrR/bpIqNJ5ianF.", "$2$05$......................"
+    };
+
+    /**
+     * Test that hashing in slices of various sizes gives the same
+     * result as BCrypt.hashpw
+     */
+    @Test
+    public void testHash() {
+        int slices[] = { 1, 7, 16, 1 << 10 };
+        for (int i = 0; i < passwords.length; i++) {
+            String expected = BCrypt.hashpw(passwords[i], salts[i]);
+            BCryptStepper s = BCryptStepper.hash(passwords[i], salts[i]);
+            int slice = slices[i];
+            int calls = 0;
+            assertEquals(0, s.getRound());
+            while (!s.advance(slice)) {
+                assertFalse(s.isDone());
+                assertEquals(Math.min(++calls * slice, s.getRounds()),
+                        s.getRound());
+            }
+            assertTrue(s.isDone());
+            assertEquals(s.getRounds(), s.getRound());
+            assertEquals(expected, s.getHash());
+            assertTrue(s.advance(1));
+        }
+    }
+
+    /**
+     * Test verification in slices
+     */
+    @Test
+    public void testVerify() {
+        String hashed = BCrypt.hashpw(passwords[1], salts[1]);
+        BCryptStepper good = BCryptStepper.verify(passwords[1], hashed);
+        BCryptStepper bad = BCryptStepper.verify(passwords[2], hashed);
+        while (!good.advance(5) | !bad.advance(3)) {
+        }
+        assertTrue(good.matches());
+        assertFalse(bad.matches());
+    }
+
+    /**
+     * Test the states in which results are unavailable
+     */
+    @Test
+    public void testState() {
+        BCryptStepper s = BCryptStepper.hash(passwords[0], salts[0]);
+        assertFalse(s.advance(0));
+        assertEquals(64, s.getRounds());
+        try {
+            s.getHash();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        try {
+            s.matches();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        try {
+            s.advance(-1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        s.advance(10);
+        s.cancel();
+        assertTrue(s.isCancelled());
+        try {
+            s.advance(1);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    /**
+     * Test that a stored hash that can match no password gives a
+     * finished verification that does not match, as BCrypt.checkpw
+     */
+    @Test
+    public void testNonCanonical() {
+        String hashed = BCrypt.hashpw("U*U", "$2a$05$CCCCCCCCCCCCCCCCCCCCC.");
+        String bad[] = {
+            hashed + "\n", hashed.substring(0, hashed.length() - 1)
+        };
+        for (String b : bad) {
+            BCryptStepper s = BCryptStepper.verify("U*U", b);
+            assertTrue(s.isDone());
+            assertTrue(s.advance(1));
+            assertFalse(s.matches());
+            assertEquals(BCrypt.checkpw("U*U", b), s.matches());
+        }
+    }
+
+    /**
+     * Test that malformed salts are rejected up front
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformed() {
+        BCryptStepper.verify("x", "$2a$05$short");
+    }
+}
@@ -14,6 +14,15 @@
 
 package org.mindrot.jbcrypt;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -434,6 +443,215 @@ public class BCryptTest {
         System.out.println("");
     }
 
+    /**
+     * Test method for 'BCrypt.hash(String, String)' and
+     * 'BCrypt.verify(byte[], String)' reusing a single engine
+     */
+    @Test
+    public void testEngineReuse() {
+        System.out.print("BCrypt engine reuse: ");
+        BCrypt engine = new BCrypt();
+        for (int i = 0; i < test_vectors.length; i++) {
+            String plain = test_vectors[i][0];
+            String salt = test_vectors[i][1].substring(0, 7+22+1);
+            String expected = test_vectors[i][1];
+            assertEquals(expected, engine.hash(plain, salt));
+            assertTrue(engine.verify(binary_test_vectors[i % binary_test_vectors.length],
+                    binary_test_match_vectors[i % binary_test_vectors.length][0]));
+            System.out.print(".");
+        }
+        System.out.println("");
+    }
+
+    /**
+     * Test method for 'BCrypt.hashpwAsync(String, String)' and
+     * 'BCrypt.checkpwAsync(String, String)'
+     */
+    @Test
+    public void testAsync() throws Exception {
+        System.out.print("BCrypt.hashpwAsync/checkpwAsync: ");
+        for (int i = 0; i < test_vectors.length; i += 4) {
+            String plain = test_vectors[i][0];
+            String salt = test_vectors[i][1].substring(0, 7+22+1);
+            String expected = test_vectors[i][1];
+            assertEquals(expected, BCrypt.hashpwAsync(plain, salt).get());
+            assertTrue(BCrypt.checkpwAsync(plain, expected).get());
+            assertFalse(BCrypt.checkpwAsync("x" + plain, expected).get());
+            System.out.print(".");
+        }
+        System.out.println("");
+    }
+
+    /**
+     * Test that the asynchronous methods use a supplied executor and
+     * report its rejections through the returned future
+     */
+    @Test
+    public void testAsyncExecutor() throws Exception {
+        ExecutorService executor = BCryptExecutors.newExecutor(1, 1);
+        try {
+            String hashed = binary_test_match_vectors[0][0];
+            CompletableFuture<Boolean> ok =
+                BCrypt.checkpwAsync(binary_test_vectors[0], hashed, executor);
+            assertTrue(ok.get());
+            executor.shutdown();
+            CompletableFuture<Boolean> rejected =
+                BCrypt.checkpwAsync(binary_test_vectors[0], hashed, executor);
+            try {
+                rejected.get();
+                fail("expected rejection");
+            } catch (ExecutionException ee) {
+                assertTrue(ee.getCause() instanceof RejectedExecutionException);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Test that hashes with a valid salt but the wrong length or a
+     * non-canonical encoding do not match, rather than throwing, as
+     * when checkpw compared against the output of hashpw
+     */
+    @Test
+    public void testCheckpwNonCanonical() {
+        String b64 = "./ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+        String plain = test_vectors[0][0];
+        String expected = test_vectors[0][1];
+        int last = b64.indexOf(expected.charAt(expected.length() - 1));
+        String bad[] = {
+            expected + " ", expected + "\n", expected + "x",
+            expected.substring(0, expected.length() - 1),
+            expected.substring(0, 7 + 22),
+            expected.substring(0, expected.length() - 1) + b64.charAt(last + 1)
+        };
+        for (String b : bad) {
+            assertFalse(b, BCrypt.checkpw(plain, b));
+        }
+        assertTrue(BCrypt.checkpw(plain, expected));
+
+        String invalid[] = {
+            "$3a$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s.",
+            "$2a$3$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s.",
+            "$2a$06$DCq7YPn5Rq63x1Lad4cll",
+            "$2a$06$DCq7YPn5Rq63x1Lad4cl*.TV4S6ytwfsfvkgY8jIucDrjc8deX1s."
+        };
+        for (String i : invalid) {
+            try {
+                BCrypt.checkpw(plain, i);
+                fail("expected IllegalArgumentException for " + i);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    /**
+     * Test method for 'BCrypt.hashpw(String, String, long, TimeUnit)'
+     * and 'BCrypt.checkpw(String, String, long, TimeUnit)'
+     */
+    @Test
+    public void testTimeout() {
+        String plain = test_vectors[0][0];
+        String expected = test_vectors[0][1];
+        String salt = expected.substring(0, 7+22+1);
+        assertEquals(expected, BCrypt.hashpw(plain, salt, 1, TimeUnit.MINUTES));
+        assertTrue(BCrypt.checkpw(plain, expected, 1, TimeUnit.MINUTES));
+        assertFalse(BCrypt.checkpw("x" + plain, expected, 1, TimeUnit.MINUTES));
+
+        try {
+            BCrypt.hashpw(plain, BCrypt.gensalt(20), 1, TimeUnit.MILLISECONDS);
+            fail("expected timeout");
+        } catch (BCryptTimeoutException e) {
+            assertFalse(e.isInterrupted());
+        }
+        try {
+            BCrypt.checkpw(plain, expected, 0, TimeUnit.SECONDS);
+            fail("expected timeout");
+        } catch (BCryptTimeoutException e) {
+            assertFalse(e.isInterrupted());
+        }
+        // The engine is still usable after abandoning a hash
+        assertEquals(expected, BCrypt.hashpw(plain, salt));
+    }
+
+    /**
+     * Test that hashing with a timeout stops when the thread is
+     * interrupted, leaving the interrupt status set
+     */
+    @Test
+    public void testInterrupt() {
+        String plain = test_vectors[0][0];
+        String expected = test_vectors[0][1];
+        Thread.currentThread().interrupt();
+        try {
+            BCrypt.checkpw(plain, expected, 1, TimeUnit.MINUTES);
+            fail("expected interruption");
+        } catch (BCryptTimeoutException e) {
+            assertTrue(e.isInterrupted());
+            assertTrue(Thread.interrupted());
+        }
+        // Without a timeout, interrupts are ignored as before
+        Thread.currentThread().interrupt();
+        try {
+            assertTrue(BCrypt.checkpw(plain, expected));
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    /**
+     * Test method for the char[], CharSequence and ByteBuffer overloads
+     * of 'BCrypt.hashpw' and 'BCrypt.checkpw'
+     */
+    @Test
+    public void testBufferOverloads() throws Exception {
+        System.out.print("BCrypt.hashpw/checkpw w/ buffers: ");
+        for (int i = 0; i < test_vectors.length; i++) {
+            String plain = test_vectors[i][0];
+            String salt = test_vectors[i][1].substring(0, 7+22+1);
+            String expected = test_vectors[i][1];
+            byte plainb[] = plain.getBytes("UTF-8");
+            ByteBuffer direct = ByteBuffer.allocateDirect(plainb.length + 2);
+            direct.put((byte) 'x').put(plainb).put((byte) 'y');
+            direct.position(1).limit(1 + plainb.length);
+
+            assertEquals(expected, BCrypt.hashpw(plain.toCharArray(), salt));
+            assertEquals(expected, BCrypt.hashpw(new StringBuilder(plain), salt));
+            assertEquals(expected,
+                    BCrypt.hashpw(CharBuffer.wrap("x" + plain, 1, plain.length() + 1), salt));
+            assertEquals(expected, BCrypt.hashpw(direct, salt));
+            assertEquals(1, direct.position());
+            assertTrue(BCrypt.checkpw(plain.toCharArray(), expected));
+            assertTrue(BCrypt.checkpw(CharBuffer.wrap(plain), expected));
+            assertTrue(BCrypt.checkpw(direct, expected));
+            assertFalse(BCrypt.checkpw(("x" + plain).toCharArray(), expected));
+            System.out.print(".");
+        }
+        System.out.println("");
+    }
+
+    /**
+     * Test that passwords encoded in place give the same hashes as
+     * String.getBytes("UTF-8"), including supplementary characters,
+     * lone surrogates and passwords longer than the key
+     */
+    @Test
+    public void testEncoding() throws Exception {
+        Random r = new Random(42);
+        String salt = "$2b$04$CCCCCCCCCCCCCCCCCCCCC.";
+        char pool[] = { 'a', 'Z', '0', '\u00a3', '\u00ff', '\u03c0', '\u20ac',
+            '\ud83d', '\ude00', '\ud800', '\udfff' };
+        for (int i = 0; i < 100; i++) {
+            char pw[] = new char[r.nextInt(60)];
+            for (int j = 0; j < pw.length; j++) {
+                pw[j] = pool[r.nextInt(pool.length)];
+            }
+            String s = new String(pw);
+            assertEquals(BCrypt.hashpw(s.getBytes("UTF-8"), salt),
+                    BCrypt.hashpw(pw, salt));
+        }
+    }
+
     /**
      * Test for correct hashing of non-US-ASCII passwords
      */
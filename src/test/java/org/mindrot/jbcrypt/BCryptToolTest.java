@@ -0,0 +1,138 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for BCryptTool
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class BCryptToolTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    private int run(String... args) throws Exception {
+        return BCryptTool.run(args, new PrintStream(out, true, "UTF-8"),
+                new PrintStream(err, true, "UTF-8"));
+    }
+
+    private Path write(String name, List<String> lines) throws Exception {
+        Path p = folder.getRoot().toPath().resolve(name);
+        Files.write(p, lines, StandardCharsets.UTF_8);
+        return p;
+    }
+
+    /**
+     * Test hashing enough lines to span several chunks, then verifying
+     * the results, with output in input order
+     */
+    @Test
+    public void testHashVerify() throws Exception {
+        List<String> passwords = new ArrayList<String>();
+        for (int i = 0; i < 300; i++) {
+            passwords.add("password" + i + (i % 7 == 0 ? "£" : "") +
+                    "................................");
+        }
+        passwords.add("");
+        Path in = write("in.txt", passwords);
+        Path hashed = folder.getRoot().toPath().resolve("hashed.txt");
+        assertEquals(0, run("hash", "-c", "4", "-p", "$2b", "-t", "3",
+                    in.toString(), hashed.toString()));
+        List<String> hashes = Files.readAllLines(hashed, StandardCharsets.UTF_8);
+        assertEquals(passwords.size(), hashes.size());
+        for (int i = 0; i < hashes.size(); i += 29) {
+            assertTrue(hashes.get(i).startsWith("$2b$04$"));
+            assertTrue(BCrypt.checkpw(passwords.get(i), hashes.get(i)));
+        }
+        assertTrue(err.toString("UTF-8").startsWith("hashed 301 records"));
+
+        List<String> pairs = new ArrayList<String>();
+        for (int i = 0; i < hashes.size(); i++) {
+            pairs.add((i == 5 ? "wrong" : passwords.get(i)) + ":" +
+                    hashes.get(i));
+        }
+        pairs.add("nohash");
+        pairs.add("x:$2b$04$short");
+        assertEquals(1, run("verify", write("pairs.txt", pairs).toString()));
+        String results[] = out.toString("UTF-8").split("\n");
+        assertEquals(pairs.size(), results.length);
+        for (int i = 0; i < hashes.size(); i++) {
+            assertEquals(i == 5 ? "mismatch" : "match", results[i]);
+        }
+        assertEquals("malformed", results[results.length - 2]);
+        assertEquals("malformed", results[results.length - 1]);
+    }
+
+    /**
+     * Test carriage returns and a missing final newline
+     */
+    @Test
+    public void testLineEndings() throws Exception {
+        String hash = BCrypt.hashpw("abc", "$2a$04$CCCCCCCCCCCCCCCCCCCCC.");
+        Path in = folder.getRoot().toPath().resolve("crlf.txt");
+        Files.write(in, ("abc:" + hash + "\r\nabc:" + hash)
+                .getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, run("verify", "-t", "1", in.toString()));
+        assertEquals("match\nmatch\n", out.toString("UTF-8"));
+    }
+
+    /**
+     * Test that a pair bcrypt cannot hash, an empty password with a
+     * "$2$" hash, is reported as malformed without failing the lines
+     * checked with it
+     */
+    @Test
+    public void testVerifyUnhashable() throws Exception {
+        String salt = "$2$04$CCCCCCCCCCCCCCCCCCCCC.";
+        String hash = BCrypt.hashpw("abc", salt);
+        List<String> pairs = new ArrayList<String>();
+        pairs.add("abc:" + hash);
+        pairs.add(":" + BCrypt.hashpw("x", salt));
+        pairs.add("abd:" + hash);
+        pairs.add("abc:" + hash);
+        assertEquals(1, run("verify", write("pairs.txt", pairs).toString()));
+        assertEquals("match\nmalformed\nmismatch\nmatch\n",
+                out.toString("UTF-8"));
+    }
+
+    /**
+     * Test that bad command lines are refused
+     */
+    @Test
+    public void testUsage() throws Exception {
+        assertEquals(2, run());
+        assertEquals(2, run("frob", "x"));
+        assertEquals(2, run("hash", "-c", "3", "x"));
+        assertEquals(2, run("verify", "-c", "10", "x"));
+        assertEquals(2, run("hash", "-t", "0", "x"));
+        assertEquals(2, run("hash", folder.getRoot().toPath()
+                    .resolve("missing").toString()));
+    }
+}
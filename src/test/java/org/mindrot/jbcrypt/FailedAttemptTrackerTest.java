@@ -0,0 +1,192 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for FailedAttemptTracker
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class FailedAttemptTrackerTest {
+    String plain = "U*U";
+    String hashed = "$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW";
+
+    /**
+     * Test that an identifier is throttled after its free attempts and
+     * released once the penalty window passes
+     */
+    @Test
+    public void testThrottle() throws Exception {
+        FailedAttemptTracker tracker =
+            new FailedAttemptTracker(16, 2, 50, 1000, TimeUnit.MILLISECONDS);
+        assertEquals(VerifyResult.MISMATCH, tracker.checkpw("alice", "x", hashed));
+        assertEquals(VerifyResult.MISMATCH, tracker.checkpw("alice", "x", hashed));
+        assertFalse(tracker.isThrottled("alice"));
+        assertEquals(VerifyResult.MISMATCH, tracker.checkpw("alice", "x", hashed));
+        assertTrue(tracker.isThrottled("alice"));
+        assertEquals(3, tracker.getFailures("alice"));
+        assertEquals(VerifyResult.THROTTLED, tracker.checkpw("alice", plain, hashed));
+        assertEquals(VerifyResult.MATCH, tracker.checkpw("bob", plain, hashed));
+
+        Thread.sleep(70);
+        assertFalse(tracker.isThrottled("alice"));
+        assertEquals(VerifyResult.MATCH, tracker.checkpw("alice", plain, hashed));
+        assertEquals(0, tracker.getFailures("alice"));
+    }
+
+    /**
+     * Test that penalty windows grow exponentially
+     */
+    @Test
+    public void testBackoff() throws Exception {
+        FailedAttemptTracker tracker =
+            new FailedAttemptTracker(16, 0, 40, 10000, TimeUnit.MILLISECONDS);
+        tracker.recordFailure("carol");
+        tracker.recordFailure("carol");
+        tracker.recordFailure("carol");
+        Thread.sleep(60);
+        // The third failure earned a 160ms window
+        assertTrue(tracker.isThrottled("carol"));
+    }
+
+    /**
+     * Test that the tracker stays bounded with many identifiers
+     */
+    @Test
+    public void testBounded() {
+        FailedAttemptTracker tracker =
+            new FailedAttemptTracker(4, 0, 1, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 10000; i++) {
+            tracker.recordFailure("user" + i);
+        }
+        int tracked = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (tracker.isThrottled("user" + i)) {
+                tracked++;
+            }
+        }
+        assertTrue(tracked > 0 && tracked <= 4);
+    }
+
+    /**
+     * Build identifiers that all have the same String.hashCode, from
+     * the blocks "Aa" and "BB"
+     * @param blocks	the number of blocks in each identifier
+     * @return	2**blocks colliding identifiers
+     */
+    private static String[] colliding(int blocks) {
+        String ids[] = new String[1 << blocks];
+        for (int i = 0; i < ids.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int b = 0; b < blocks; b++) {
+                sb.append((i >> b & 1) == 0 ? "Aa" : "BB");
+            }
+            ids[i] = sb.toString();
+        }
+        return ids;
+    }
+
+    /**
+     * Test that identifiers with equal hash codes do not share a bucket,
+     * so that penalising one cannot shield the others
+     */
+    @Test
+    public void testCollidingIds() throws Exception {
+        String ids[] = colliding(6);
+        assertEquals(ids[0].hashCode(), ids[ids.length - 1].hashCode());
+
+        FailedAttemptTracker tracker =
+            new FailedAttemptTracker(1 << 16, 0, 10, 10, TimeUnit.SECONDS);
+        Set<Integer> buckets = new HashSet<Integer>();
+        for (String id : ids) {
+            buckets.add(tracker.bucket(id));
+        }
+        assertTrue(buckets.size() > ids.length - 4);
+
+        // The attacker's identifier is penalised first; the victims'
+        // failures must still be counted
+        tracker.recordFailure(ids[0]);
+        assertTrue(tracker.isThrottled(ids[0]));
+        int throttled = 0;
+        for (int i = 1; i < ids.length; i++) {
+            tracker.recordFailure(ids[i]);
+            if (tracker.isThrottled(ids[i])) {
+                throttled++;
+            }
+        }
+        assertTrue(throttled > ids.length - 4);
+    }
+
+    /**
+     * Find identifiers that share a bucket with another
+     * @param tracker	the tracker whose buckets to use
+     * @param id	the identifier to share a bucket with
+     * @param n	the number of identifiers to find
+     * @return	n identifiers in the same bucket as id
+     */
+    private static String[] sameBucket(FailedAttemptTracker tracker,
+            String id, int n) {
+        String ids[] = new String[n];
+        int b = tracker.bucket(id);
+        for (int i = 0, k = 0; k < n; i++) {
+            if (tracker.bucket("throwaway" + i) == b) {
+                ids[k++] = "throwaway" + i;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Test that failures for other identifiers in the same bucket,
+     * interleaved with guesses against a victim, do not reset the
+     * victim's count
+     */
+    @Test
+    public void testInterleavedCollisions() {
+        FailedAttemptTracker tracker =
+            new FailedAttemptTracker(64, 3, 10, 10, TimeUnit.SECONDS);
+        String ids[] = sameBucket(tracker, "victim", 100);
+        int next = 0;
+
+        // Fewer throwaway identifiers between guesses than a bucket holds
+        for (int guess = 0; guess < 4; guess++) {
+            tracker.recordFailure("victim");
+            for (int k = 0; k < 3; k++) {
+                tracker.recordFailure(ids[next++]);
+            }
+        }
+        assertEquals(4, tracker.getFailures("victim"));
+        assertTrue(tracker.isThrottled("victim"));
+
+        // Once it has failed twice, no number of them displaces it
+        tracker.recordSuccess("victim");
+        tracker.recordFailure("victim");
+        tracker.recordFailure("victim");
+        while (next < ids.length) {
+            tracker.recordFailure(ids[next++]);
+        }
+        assertEquals(2, tracker.getFailures("victim"));
+        tracker.recordFailure("victim");
+        tracker.recordFailure("victim");
+        assertTrue(tracker.isThrottled("victim"));
+    }
+}
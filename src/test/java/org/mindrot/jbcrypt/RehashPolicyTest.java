@@ -0,0 +1,113 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for RehashPolicy
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class RehashPolicyTest {
+    RehashPolicy policy = new RehashPolicy("$2b", 5, 6);
+
+    /**
+     * Test method for 'RehashPolicy.needsRehash(String)'
+     */
+    @Test
+    public void testNeedsRehash() {
+        assertFalse(policy.needsRehash(
+                "$2b$05$/OK.fbVrR/bpIqNJ5ianF.Sa7shbm4.OzKpvFnX1pQLmQW96oUlCq"));
+        assertTrue(policy.needsRehash(
+                "$2a$05$/OK.fbVrR/bpIqNJ5ianF.Sa7shbm4.OzKpvFnX1pQLmQW96oUlCq"));
+        assertTrue(policy.needsRehash(
+                "$2x$05$/OK.fbVrR/bpIqNJ5ianF.CE5elHaaO4EbggVDjb8P19RukzXSM3e"));
+        assertTrue(policy.needsRehash(
+                "$2b$04$/OK.fbVrR/bpIqNJ5ianF.Sa7shbm4.OzKpvFnX1pQLmQW96oUlCq"));
+        assertTrue(policy.needsRehash(
+                "$2b$07$/OK.fbVrR/bpIqNJ5ianF.Sa7shbm4.OzKpvFnX1pQLmQW96oUlCq"));
+    }
+
+    /**
+     * Test method for 'RehashPolicy.verifyAndUpgrade(String, String)'
+     */
+    @Test
+    public void testVerifyAndUpgrade() {
+        String current = BCrypt.hashpw("U*U", BCrypt.gensalt("$2b", 6));
+        assertSame(current, policy.verifyAndUpgrade("U*U", current));
+        assertNull(policy.verifyAndUpgrade("U*U*", current));
+
+        String legacy = "$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW";
+        assertNull(policy.verifyAndUpgrade("U*U*", legacy));
+        String upgraded = policy.verifyAndUpgrade("U*U", legacy);
+        assertTrue(upgraded.startsWith("$2b$05$"));
+        assertTrue(BCrypt.checkpw("U*U", upgraded));
+        assertFalse(policy.needsRehash(upgraded));
+
+        String cheap = BCrypt.hashpw(new byte[] { 1, 2, 3 }, BCrypt.gensalt("$2b", 4));
+        upgraded = policy.verifyAndUpgrade(new byte[] { 1, 2, 3 }, cheap);
+        assertTrue(upgraded.startsWith("$2b$05$"));
+    }
+
+    /**
+     * Test that a stored hash that can match no password is treated as
+     * BCrypt.checkpw treats it, while a malformed salt is still refused
+     */
+    @Test
+    public void testNonCanonical() {
+        String current = BCrypt.hashpw("U*U", BCrypt.gensalt("$2b", 5));
+        String bad[] = {
+            current + " ", current.substring(0, current.length() - 1)
+        };
+        for (String b : bad) {
+            assertFalse(BCrypt.checkpw("U*U", b));
+            assertNull(policy.verifyAndUpgrade("U*U", b));
+            assertNull(policy.verifyAndUpgrade(new byte[] { 'U' }, b));
+            assertTrue(policy.needsRehash(b));
+        }
+        try {
+            policy.verifyAndUpgrade("U*U", "$2b$05$short");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+        }
+        try {
+            policy.needsRehash("$2b$05$short");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+        }
+    }
+
+    /**
+     * Test that invalid policies are rejected
+     */
+    @Test
+    public void testInvalid() {
+        String prefixes[] = { "$2x", "$2", "$2bb", "$3b" };
+        for (String prefix : prefixes) {
+            try {
+                new RehashPolicy(prefix, 10, 12);
+                fail("expected IllegalArgumentException for " + prefix);
+            } catch (IllegalArgumentException iae) {
+            }
+        }
+        try {
+            new RehashPolicy("$2b", 12, 10);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+        }
+    }
+}
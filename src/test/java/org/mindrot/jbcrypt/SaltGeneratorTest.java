@@ -0,0 +1,86 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for SaltGenerator
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class SaltGeneratorTest {
+    /**
+     * Test that generated salts are well formed and distinct, across
+     * several refills of the prefetch buffer
+     */
+    @Test
+    public void testGensalt() {
+        SaltGenerator generator = new SaltGenerator();
+        Set<String> salts = new HashSet<String>();
+        for (int i = 0; i < 1000; i++) {
+            String salt = generator.gensalt(i % 2 == 0 ? "$2b" : "$2a", 4 + i % 27);
+            assertEquals(29, salt.length());
+            assertTrue(salts.add(salt.substring(7)));
+            String hashed = salt + "7uG0VCzI2bS7j6ymqJi9CdcdxiRTWNy";
+            assertEquals(hashed, BCryptHash.parse(hashed).toString());
+        }
+        assertTrue(generator.gensalt(12).startsWith("$2y$12$"));
+    }
+
+    /**
+     * Test that threads draw distinct salts
+     */
+    @Test
+    public void testThreads() throws Exception {
+        final Set<String> salts = Collections.synchronizedSet(new HashSet<String>());
+        Thread threads[] = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    salts.add(BCrypt.gensalt(10));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(2000, salts.size());
+    }
+
+    /**
+     * Test that invalid parameters are rejected
+     */
+    @Test
+    public void testInvalid() {
+        SaltGenerator generator = new SaltGenerator();
+        try {
+            generator.gensalt("$2x", 10);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+        }
+        try {
+            generator.gensalt(31);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+        }
+    }
+}
@@ -0,0 +1,77 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for VerificationCache
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class VerificationCacheTest {
+    String plain = "U*U";
+    String hashed = "$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW";
+    String other = "$2a$05$CCCCCCCCCCCCCCCCCCCCC.VGOzA784oUp/Z0DY336zx7pLYAy0lwK";
+
+    /**
+     * Test that successes are cached and failures are not
+     */
+    @Test
+    public void testCheckpw() {
+        VerificationCache cache = new VerificationCache(10, 1, TimeUnit.MINUTES);
+        assertFalse(cache.checkpw("U*U*", hashed));
+        assertEquals(0, cache.size());
+        assertTrue(cache.checkpw(plain, hashed));
+        assertEquals(1, cache.size());
+        assertTrue(cache.checkpw(plain, hashed));
+        assertTrue(cache.checkpw(plain.getBytes(), hashed));
+        assertFalse(cache.checkpw("U*U*", hashed));
+        assertFalse(cache.checkpw(plain, other));
+        assertTrue(cache.checkpw("U*U*", other));
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * Test explicit invalidation
+     */
+    @Test
+    public void testInvalidate() {
+        VerificationCache cache = new VerificationCache(10, 1, TimeUnit.MINUTES);
+        assertTrue(cache.checkpw(plain, hashed));
+        assertTrue(cache.checkpw("U*U*", other));
+        cache.invalidate(hashed);
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Test that entries expire and that the cache is size-bounded
+     */
+    @Test
+    public void testEviction() throws Exception {
+        VerificationCache cache = new VerificationCache(1, 20, TimeUnit.MILLISECONDS);
+        assertTrue(cache.checkpw(plain, hashed));
+        assertTrue(cache.checkpw("U*U*", other));
+        assertEquals(1, cache.size());
+        Thread.sleep(40);
+        assertTrue(cache.checkpw("U*U*", other));
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,116 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for VerificationGate
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class VerificationGateTest {
+    String plain = "U*U";
+    String hashed = "$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW";
+
+    /**
+     * Test verification through an idle gate
+     */
+    @Test
+    public void testCheckpw() {
+        VerificationGate gate = new VerificationGate(2, 2, 1, TimeUnit.SECONDS);
+        assertEquals(VerifyResult.MATCH, gate.checkpw(plain, hashed));
+        assertEquals(VerifyResult.MISMATCH, gate.checkpw("U*U*", hashed));
+        assertEquals(0, gate.getActiveCount());
+        assertEquals(0, gate.getRejectedCount());
+    }
+
+    /**
+     * Test that a saturated gate rejects without waiting when its
+     * queue is full
+     */
+    @Test
+    public void testRejectWhenSaturated() throws Exception {
+        final VerificationGate gate =
+            new VerificationGate(1, 0, 1, TimeUnit.MINUTES);
+        final String slow_hash = BCrypt.hashpw(plain, BCrypt.gensalt(12));
+        Thread busy = new Thread(() -> gate.checkpw(plain, slow_hash));
+        busy.start();
+        while (gate.getActiveCount() == 0) {
+            Thread.sleep(1);
+        }
+
+        long start = System.nanoTime();
+        assertEquals(VerifyResult.REJECTED, gate.checkpw(plain, hashed));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, gate.getRejectedCount());
+        busy.join();
+    }
+
+    /**
+     * Test that a queued caller gives up after the maximum wait
+     */
+    @Test
+    public void testQueueTimeout() throws Exception {
+        final VerificationGate gate =
+            new VerificationGate(1, 1, 10, TimeUnit.MILLISECONDS);
+        final String slow_hash = BCrypt.hashpw(plain, BCrypt.gensalt(12));
+        Thread busy = new Thread(() -> gate.checkpw(plain, slow_hash));
+        busy.start();
+        while (gate.getActiveCount() == 0) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(VerifyResult.REJECTED, gate.checkpw(plain, hashed));
+        assertEquals(0, gate.getQueuedCount());
+        busy.join();
+        assertEquals(VerifyResult.MATCH, gate.checkpw(plain, hashed));
+    }
+
+    /**
+     * Test that callers that are already interrupted are rejected
+     * without loosening the bound on the queue
+     */
+    @Test
+    public void testInterrupted() throws Exception {
+        final VerificationGate gate =
+            new VerificationGate(1, 0, 10, TimeUnit.SECONDS);
+        Thread.currentThread().interrupt();
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(VerifyResult.REJECTED, gate.checkpw(plain, hashed));
+            }
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals(3, gate.getRejectedCount());
+
+        final String slow_hash = BCrypt.hashpw(plain, BCrypt.gensalt(12));
+        Thread busy = new Thread(() -> gate.checkpw(plain, slow_hash));
+        busy.start();
+        while (gate.getActiveCount() == 0) {
+            Thread.sleep(1);
+        }
+
+        long start = System.nanoTime();
+        assertEquals(VerifyResult.REJECTED, gate.checkpw(plain, hashed));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(0, gate.getQueuedCount());
+        busy.join();
+    }
+}
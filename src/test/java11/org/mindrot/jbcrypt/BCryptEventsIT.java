@@ -0,0 +1,138 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit tests for the JFR events of the Java 11 BCryptEvents, run
+ * against the multi-release jar
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class BCryptEventsIT {
+    /**
+     * Test that hash, verify and gensalt are recorded with their
+     * variant, cost and outcome, including hashes that time out
+     */
+    @Test
+    public void testEvents() throws Exception {
+        Path file = Files.createTempFile("jbcrypt", ".jfr");
+        List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+
+        try (Recording recording = new Recording()) {
+            recording.enable("org.mindrot.jbcrypt.Hash");
+            recording.enable("org.mindrot.jbcrypt.Verify");
+            recording.enable("org.mindrot.jbcrypt.Gensalt");
+            recording.start();
+            String hashed = BCrypt.hashpw("password", BCrypt.gensalt("$2b", 5));
+            BCrypt.checkpw("password", hashed);
+            BCrypt.checkpw("wrong", hashed);
+            try {
+                BCrypt.checkpw("password", "$2b$05$bogus");
+            } catch (IllegalArgumentException iae) {
+            }
+            try {
+                BCrypt.hashpw("password", hashed, 0, TimeUnit.SECONDS);
+            } catch (BCryptTimeoutException bte) {
+            }
+            try {
+                BCrypt.checkpw("password", hashed, 0, TimeUnit.SECONDS);
+            } catch (BCryptTimeoutException bte) {
+            }
+            recording.stop();
+            recording.dump(file);
+            events.addAll(RecordingFile.readAllEvents(file));
+        } finally {
+            Files.delete(file);
+        }
+
+        List<String> seen = new ArrayList<String>();
+        for (RecordedEvent e : events) {
+            String name = e.getEventType().getName();
+            if (!name.startsWith("org.mindrot.jbcrypt.")) {
+                continue;
+            }
+            assertEquals(Thread.currentThread().getName(),
+                    e.getThread().getJavaName());
+            boolean malformed = false;
+            if (!name.endsWith("Gensalt")) {
+                seen.add(name + " " + e.getString("outcome"));
+                malformed = "malformed".equals(e.getString("outcome"));
+            } else {
+                seen.add(name);
+            }
+            if (!malformed) {
+                assertEquals("$2b", e.getString("variant"));
+                assertEquals(5, e.getInt("cost"));
+            }
+        }
+        assertTrue(seen.contains("org.mindrot.jbcrypt.Gensalt"));
+        assertTrue(seen.contains("org.mindrot.jbcrypt.Hash hashed"));
+        assertTrue(seen.contains("org.mindrot.jbcrypt.Hash timeout"));
+        assertTrue(seen.contains("org.mindrot.jbcrypt.Verify match"));
+        assertTrue(seen.contains("org.mindrot.jbcrypt.Verify mismatch"));
+        assertTrue(seen.contains("org.mindrot.jbcrypt.Verify malformed"));
+        assertTrue(seen.contains("org.mindrot.jbcrypt.Verify timeout"));
+    }
+
+    /**
+     * Test that hashing and verifying work on a runtime without
+     * jdk.jfr, by running the jar's command-line tool as a module with
+     * the module graph limited to java.base
+     */
+    @Test
+    public void testWithoutJfr() throws Exception {
+        Path jar = Paths.get(BCrypt.class.getProtectionDomain()
+                .getCodeSource().getLocation().toURI());
+        String hashed = BCrypt.hashpw("password", "$2b$04$CCCCCCCCCCCCCCCCCCCCC.");
+        Path in = Files.createTempFile("jbcrypt", ".txt");
+        Path out = Files.createTempFile("jbcrypt", ".out");
+        try {
+            Files.write(in, Arrays.asList("password:" + hashed,
+                        "wrong:" + hashed, "password:$2b$04$bogus"),
+                    StandardCharsets.UTF_8);
+            Process p = new ProcessBuilder(
+                    Paths.get(System.getProperty("java.home"), "bin", "java")
+                    .toString(),
+                    "--limit-modules", "java.base,org.mindrot.jbcrypt",
+                    "-p", jar.toString(),
+                    "-m", "org.mindrot.jbcrypt/org.mindrot.jbcrypt.BCryptTool",
+                    "verify", in.toString(), out.toString())
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+            assertEquals(1, p.waitFor());
+            assertEquals(Arrays.asList("match", "mismatch", "malformed"),
+                    Files.readAllLines(out, StandardCharsets.UTF_8));
+        } finally {
+            Files.delete(in);
+            Files.delete(out);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit tests for the Java 21 BCryptVector, run against the
+ * multi-release jar with jdk.incubator.vector added
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class BCryptVectorIT {
+    /**
+     * Test that the Vector API engine is selected
+     */
+    @Test
+    public void testSelected() {
+        assertTrue(BCryptVector.lanes() >= 4);
+        assertEquals(BCryptVector.lanes(), BCryptLanes.LANES);
+    }
+
+    /**
+     * Test that batches hashed on the Vector API engine match hashing
+     * one at a time, for every variant and for partial groups
+     */
+    @Test
+    public void testHashpw() throws Exception {
+        String minors[] = { "$2a", "$2b", "$2x", "$2y" };
+        int n = BCryptLanes.LANES + 3;
+        byte passwords[][] = new byte[n][];
+        String salts[] = new String[n];
+        for (int i = 0; i < n; i++) {
+            passwords[i] = ("£password " + i).getBytes("ISO-8859-1");
+            salts[i] = minors[i % 4] + BCrypt.gensalt("$2b", 5).substring(3);
+        }
+        String hashed[] = BCryptBatch.hashpw(passwords, salts);
+        for (int i = 0; i < n; i++) {
+            assertEquals(BCrypt.hashpw(passwords[i], salts[i]), hashed[i]);
+        }
+        assertEquals(n, BCryptBatch.checkpw(passwords, hashed).cardinality());
+    }
+}
@@ -0,0 +1,122 @@
+// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
+//
+// Permission to use, copy, modify, and distribute this software for any
+// purpose with or without fee is hereby granted, provided that the above
+// copyright notice and this permission notice appear in all copies.
+//
+// THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+// WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+// MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+// ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+// WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+// ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+// OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+
+package org.mindrot.jbcrypt;
+
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit tests for the layout of the multi-release jar, run against the
+ * jar on each release it is built with
+ * @author Damien Miller
+ * @version 0.4
+ */
+public class MultiReleaseIT {
+    /**
+     * Test that the module descriptor selected for the running release
+     * exports the package and reads the optional modules used by that
+     * release's classes
+     */
+    @Test
+    public void testModuleDescriptor() throws Exception {
+        Path jar = Paths.get(BCrypt.class.getProtectionDomain()
+                .getCodeSource().getLocation().toURI());
+        assertTrue(jar.toString().endsWith(".jar"));
+
+        ModuleDescriptor descriptor = ModuleFinder.of(jar)
+            .find("org.mindrot.jbcrypt").get().descriptor();
+        assertFalse(descriptor.isAutomatic());
+        assertEquals(1, descriptor.exports().size());
+        assertEquals("org.mindrot.jbcrypt",
+                descriptor.exports().iterator().next().source());
+
+        Set<String> requires = new HashSet<String>();
+        for (ModuleDescriptor.Requires r : descriptor.requires()) {
+            requires.add(r.name());
+        }
+        int release = Runtime.version().major();
+        assertEquals(release >= 11, requires.contains("jdk.jfr"));
+        assertEquals(release >= 21, requires.contains("jdk.incubator.vector"));
+    }
+
+    /**
+     * Test that the classes of the running release are the ones loaded
+     */
+    @Test
+    public void testVersionedClasses() throws Exception {
+        int release = Runtime.version().major();
+        String events = BCryptEvents.class.getResource("BCryptEvents.class")
+            .toString();
+        assertEquals(release >= 11,
+                events.contains("META-INF/versions/11/"));
+        String vector = BCryptVector.class.getResource("BCryptVector.class")
+            .toString();
+        assertEquals(release >= 21,
+                vector.contains("META-INF/versions/21/"));
+    }
+
+    /**
+     * Test that the optional modules the descriptor reads are really
+     * optional: the module resolves and hashes with nothing but
+     * java.base, and jdk.jfr is not resolved
+     */
+    @Test
+    public void testOptionalModules() throws Exception {
+        Path jar = Paths.get(BCrypt.class.getProtectionDomain()
+                .getCodeSource().getLocation().toURI());
+        Path in = Files.createTempFile("jbcrypt", ".txt");
+        Path out = Files.createTempFile("jbcrypt", ".out");
+        try {
+            Files.write(in, Arrays.asList("password", "£"),
+                    StandardCharsets.UTF_8);
+            Process p = new ProcessBuilder(
+                    Paths.get(System.getProperty("java.home"), "bin", "java")
+                    .toString(),
+                    "--limit-modules", "java.base,org.mindrot.jbcrypt",
+                    "--show-module-resolution",
+                    "-p", jar.toString(),
+                    "-m", "org.mindrot.jbcrypt/org.mindrot.jbcrypt.BCryptTool",
+                    "hash", "-c", "4", in.toString(), out.toString())
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+            String resolution = new String(p.getInputStream().readAllBytes(),
+                    StandardCharsets.UTF_8);
+            assertEquals(0, p.waitFor());
+            assertTrue(resolution.contains("org.mindrot.jbcrypt"));
+            assertFalse(resolution.contains("jdk.jfr"));
+            assertFalse(resolution.contains("jdk.incubator.vector"));
+
+            List<String> hashes = Files.readAllLines(out,
+                    StandardCharsets.UTF_8);
+            assertEquals(2, hashes.size());
+            assertTrue(BCrypt.checkpw("password", hashes.get(0)));
+            assertTrue(BCrypt.checkpw("£", hashes.get(1)));
+        } finally {
+            Files.delete(in);
+            Files.delete(out);
+        }
+    }
+}